@@ -0,0 +1,137 @@
+package com.trevorpage.tpsvg;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+
+/**
+ * Pool of the ARGB_8888 bitmaps that images are rendered into, so that views that are resized or
+ * recycled reuse their buffers instead of allocating new ones. Bitmaps are bucketed by their exact
+ * size, as a bitmap cannot be reconfigured to another. The pool holds released bitmaps up to a byte
+ * budget, oldest first out; call trimMemory() when the application is low on memory.
+ * A bitmap must not be used after it has been released.
+ */
+public final class SVGBitmapPool {
+	private static final HashMap<Long, ArrayList<Bitmap>>	buckets		= new HashMap<Long, ArrayList<Bitmap>>();
+
+
+	// 1/16th of the heap limit by default.
+	private static int										maxBytes	= (int) (Runtime.getRuntime().maxMemory() / 16);
+
+
+	// Every pooled bitmap, oldest released first.
+	private static final ArrayList<Bitmap>					order		= new ArrayList<Bitmap>();
+
+
+	private static int										usedBytes	= 0;
+
+
+	private SVGBitmapPool() {
+
+	}
+
+
+	/**
+	 * Get a transparent ARGB_8888 bitmap, from the pool if there is one of the size.
+	 */
+	public static Bitmap acquire(final int width, final int height) {
+		synchronized (SVGBitmapPool.class) {
+			final ArrayList<Bitmap> bucket = buckets.get(bucketKey(width, height));
+			if (null != bucket) {
+				final Bitmap bitmap = bucket.remove(bucket.size() - 1);
+				if (bucket.isEmpty()) {
+					buckets.remove(bucketKey(width, height));
+				}
+				order.remove(bitmap);
+				usedBytes -= byteCount(bitmap);
+				bitmap.eraseColor(Color.TRANSPARENT);
+				return bitmap;
+			}
+		}
+
+		try {
+			return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		}
+		catch (final OutOfMemoryError e) {
+			// The pooled bitmaps are the first thing to go.
+			trimMemory();
+			return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		}
+	}
+
+
+	private static Long bucketKey(final int width, final int height) {
+		return Long.valueOf(((long) width << 32) | (height & 0xffffffffL));
+	}
+
+
+	private static int byteCount(final Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+
+	/**
+	 * @return The number of bytes of bitmaps in the pool.
+	 */
+	public static synchronized int getSize() {
+		return usedBytes;
+	}
+
+
+	/**
+	 * Give a bitmap back to the pool. Null, recycled and non ARGB_8888 bitmaps are ignored.
+	 */
+	public static synchronized void release(final Bitmap bitmap) {
+		if (null == bitmap || bitmap.isRecycled() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+			return;
+		}
+		final Long key = bucketKey(bitmap.getWidth(), bitmap.getHeight());
+		ArrayList<Bitmap> bucket = buckets.get(key);
+		if (null == bucket) {
+			bucket = new ArrayList<Bitmap>(2);
+			buckets.put(key, bucket);
+		}
+		bucket.add(bitmap);
+		order.add(bitmap);
+		usedBytes += byteCount(bitmap);
+		trim(maxBytes);
+	}
+
+
+	/**
+	 * Set the byte budget of the pool, by default 1/16th of the heap limit. 0 turns pooling off.
+	 */
+	public static synchronized void setMaxSize(final int bytes) {
+		maxBytes = bytes;
+		trim(maxBytes);
+	}
+
+
+	/**
+	 * Recycle every pooled bitmap, for example from onTrimMemory() or onLowMemory().
+	 */
+	public static synchronized void trimMemory() {
+		trim(0);
+	}
+
+
+	private static void trim(final int bytes) {
+		while (usedBytes > bytes) {
+			final Bitmap bitmap = order.remove(0);
+			final Long key = bucketKey(bitmap.getWidth(), bitmap.getHeight());
+			final ArrayList<Bitmap> bucket = buckets.get(key);
+			bucket.remove(bitmap);
+			if (bucket.isEmpty()) {
+				buckets.remove(key);
+			}
+			usedBytes -= byteCount(bitmap);
+			bitmap.recycle();
+		}
+	}
+
+}
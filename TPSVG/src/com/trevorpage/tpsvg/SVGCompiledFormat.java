@@ -0,0 +1,380 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.trevorpage.tpsvg.SVGParserRenderer.Arc;
+import com.trevorpage.tpsvg.SVGParserRenderer.Gradient;
+import com.trevorpage.tpsvg.SVGParserRenderer.SvgStyle;
+import com.trevorpage.tpsvg.SVGParserRenderer.Textstring;
+
+
+/**
+ * Reads and writes the compiled form of a parsed SVG image: the bytecode and everything it
+ * refers to (path verbs and coordinates, matrices, styles, gradients, textstrings, id strings,
+ * arcs, subtree jump positions and private data). Loading a compiled document does not involve
+ * any XML or path parsing; the data is read straight from a ByteBuffer, which is typically a
+ * MappedByteBuffer of the compiled file.
+ * All values are big-endian, which is the default order of both DataOutputStream and ByteBuffer.
+ * A string is written as its length in chars followed by the chars, with a length of -1 for null.
+ * The file starts with MAGIC and VERSION. A file with a different version is rejected, so that
+ * the caller can fall back to parsing the SVG source.
+ */
+final class SVGCompiledFormat {
+
+	/**
+	 * Where the build time compiler puts compiled documents within the assets: SVG raw resource
+	 * 'name' becomes ASSET_DIRECTORY/raw/name.svgc and SVG asset 'path/name.svg' becomes
+	 * ASSET_DIRECTORY/assets/path/name.svgc.
+	 */
+	static final String	ASSET_DIRECTORY		= "svgc";
+
+
+	static final String	FILE_EXTENSION		= ".svgc";
+
+
+	static final int	MAGIC				= 0x54505356;	// "TPSV"
+
+
+	static final int	VERSION				= 3;
+
+
+	private static final int	STYLE_HAS_FILL		= 1;
+
+
+	private static final int	STYLE_HAS_STROKE	= 2;
+
+
+	private SVGCompiledFormat() {
+
+	}
+
+
+	/**
+	 * @return The name of the compiled asset for an SVG asset, given its path within the assets.
+	 */
+	static String assetNameForAsset(final String assetPath) {
+		final String lower = assetPath.toLowerCase();
+		final String path = lower.endsWith(".svg") || lower.endsWith(".svgz")
+				? assetPath.substring(0, assetPath.lastIndexOf('.'))
+				: assetPath;
+		return ASSET_DIRECTORY + "/assets/" + path + FILE_EXTENSION;
+	}
+
+
+	/**
+	 * @return The name of the compiled asset for an SVG raw resource, given its resource entry name
+	 *         (the file name without extension).
+	 */
+	static String assetNameForRawResource(final String entryName) {
+		return ASSET_DIRECTORY + "/raw/" + entryName + FILE_EXTENSION;
+	}
+
+
+	private static float[] readFloats(final ByteBuffer in, final int count) {
+		final float[] result = new float[count];
+		in.asFloatBuffer().get(result);
+		in.position(in.position() + count * 4);
+		return result;
+	}
+
+
+	private static int[] readInts(final ByteBuffer in, final int count) {
+		final int[] result = new int[count];
+		in.asIntBuffer().get(result);
+		in.position(in.position() + count * 4);
+		return result;
+	}
+
+
+	private static String readString(final ByteBuffer in) {
+		final int length = in.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final char[] chars = new char[length];
+		in.asCharBuffer().get(chars);
+		in.position(in.position() + length * 2);
+		return new String(chars);
+	}
+
+
+	/**
+	 * Fill the (newly constructed) image with the compiled document in the buffer. Only the
+	 * plain data is read; the caller is responsible for creating the objects needed for rendering.
+	 *
+	 * @throws IOException
+	 *             If the buffer does not hold a compiled document of this version.
+	 */
+	static void read(final SVGParserRenderer image, final ByteBuffer in) throws IOException {
+		try {
+			if (in.getInt() != MAGIC) {
+				throw new IOException("Not a compiled SVG document");
+			}
+			final int version = in.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported compiled SVG document version " + version);
+			}
+
+			image.mRootSvgWidth = in.getFloat();
+			image.mRootSvgHeight = in.getFloat();
+
+			image.bytecodeArr = readInts(in, in.getInt());
+
+			final byte[] verbs = new byte[in.getInt()];
+			in.get(verbs);
+			final float[] coords = readFloats(in, in.getInt());
+			final int pathCount = in.getInt();
+			final int[] pathVerbStart = readInts(in, pathCount);
+			final int[] pathCoordStart = readInts(in, pathCount);
+			image.mPathData.set(verbs, coords, pathVerbStart, pathCoordStart);
+
+			int count = in.getInt();
+			image.matrixDataList.ensureCapacity(count);
+			for (int i = 0; i < count; i++) {
+				image.matrixDataList.add(readFloats(in, 9));
+			}
+
+			count = in.getInt();
+			for (int i = 0; i < count; i++) {
+				final Gradient g = new Gradient();
+				g.id = readString(in);
+				g.href = readString(in);
+				g.isRadial = in.get() != 0;
+				if (in.get() != 0) {
+					g.matrix = readFloats(in, 9);
+				}
+				g.x1 = in.getFloat();
+				g.y1 = in.getFloat();
+				g.x2 = in.getFloat();
+				g.y2 = in.getFloat();
+				g.cx = in.getFloat();
+				g.cy = in.getFloat();
+				g.radius = in.getFloat();
+				final int stops = in.getInt();
+				g.stopColours.ensureCapacity(stops);
+				for (int s = 0; s < stops; s++) {
+					g.stopColours.add(in.getInt());
+				}
+				image.gradientList.add(g);
+			}
+
+			count = in.getInt();
+			image.styleList.ensureCapacity(count);
+			for (int i = 0; i < count; i++) {
+				final SvgStyle s = new SvgStyle();
+				final byte flags = in.get();
+				s.hasFill = (flags & STYLE_HAS_FILL) != 0;
+				s.hasStroke = (flags & STYLE_HAS_STROKE) != 0;
+				s.masterOpacity = in.getFloat();
+				s.fillOpacity = in.getFloat();
+				s.strokeOpacity = in.getFloat();
+				s.fillColour = in.getInt();
+				s.strokeColour = in.getInt();
+				s.fillGradient = in.getInt();
+				s.strokeGradient = in.getInt();
+				s.strokeWidth = in.getFloat();
+				s.textSize = in.getFloat();
+				s.textScaleX = in.getFloat();
+				s.textAlign = in.get();
+				s.fontFamily = readString(in);
+				image.styleList.add(s);
+			}
+
+			count = in.getInt();
+			image.textstringList.ensureCapacity(count);
+			for (int i = 0; i < count; i++) {
+				final float x = in.getFloat();
+				final float y = in.getFloat();
+				final int length = in.getInt();
+				final char[] chars = new char[length];
+				in.asCharBuffer().get(chars);
+				in.position(in.position() + length * 2);
+				image.textstringList.add(image.new Textstring(x, y, chars, 0, length));
+			}
+
+			count = in.getInt();
+			image.idstringList.ensureCapacity(count);
+			for (int i = 0; i < count; i++) {
+				image.idstringList.add(readString(in));
+			}
+
+			count = in.getInt();
+			image.arcsList.ensureCapacity(count);
+			for (int i = 0; i < count; i++) {
+				final float left = in.getFloat();
+				final float top = in.getFloat();
+				final float right = in.getFloat();
+				final float bottom = in.getFloat();
+				final float angleStart = in.getFloat();
+				final float angleExtent = in.getFloat();
+				image.arcsList.add(new Arc(left, top, right, bottom, angleStart, angleExtent, readString(in)));
+			}
+
+			count = in.getInt();
+			for (int i = 0; i < count; i++) {
+				final String id = readString(in);
+				image.subtreeJumpMap.put(id, in.getInt());
+			}
+
+			count = in.getInt();
+			for (int i = 0; i < count; i++) {
+				final String key = readString(in);
+				image.mPrivateDataMap.put(key, readString(in));
+			}
+		}
+		catch (final RuntimeException e) {
+			// BufferUnderflowException, IndexOutOfBoundsException etc. from a truncated or corrupt file.
+			final IOException ioe = new IOException("Corrupt compiled SVG document");
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+
+
+	/**
+	 * Write the compiled document of a parsed image.
+	 */
+	static void write(final SVGParserRenderer image, final OutputStream outStream) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outStream));
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		out.writeFloat(image.mRootSvgWidth);
+		out.writeFloat(image.mRootSvgHeight);
+
+		final int[] bytecode = null == image.bytecodeArr ? new int[] { 0 } : image.bytecodeArr;
+		out.writeInt(bytecode.length);
+		for (int i = 0; i < bytecode.length; i++) {
+			out.writeInt(bytecode[i]);
+		}
+
+		final SVGPathData pathData = image.mPathData;
+		out.writeInt(pathData.verbCount);
+		out.write(pathData.verbs, 0, pathData.verbCount);
+		out.writeInt(pathData.coordCount);
+		for (int i = 0; i < pathData.coordCount; i++) {
+			out.writeFloat(pathData.coords[i]);
+		}
+		out.writeInt(pathData.pathCount);
+		for (int i = 0; i < pathData.pathCount; i++) {
+			out.writeInt(pathData.pathVerbStart[i]);
+		}
+		for (int i = 0; i < pathData.pathCount; i++) {
+			out.writeInt(pathData.pathCoordStart[i]);
+		}
+
+		out.writeInt(image.matrixDataList.size());
+		for (final float[] m : image.matrixDataList) {
+			writeFloats(out, m);
+		}
+
+		out.writeInt(image.gradientList.size());
+		for (final Gradient g : image.gradientList) {
+			writeString(out, g.id);
+			writeString(out, g.href);
+			out.writeBoolean(g.isRadial);
+			out.writeBoolean(g.matrix != null);
+			if (g.matrix != null) {
+				writeFloats(out, g.matrix);
+			}
+			out.writeFloat(g.x1);
+			out.writeFloat(g.y1);
+			out.writeFloat(g.x2);
+			out.writeFloat(g.y2);
+			out.writeFloat(g.cx);
+			out.writeFloat(g.cy);
+			out.writeFloat(g.radius);
+			out.writeInt(g.stopColours.size());
+			for (final Integer colour : g.stopColours) {
+				out.writeInt(colour);
+			}
+		}
+
+		// Each style is in the list once, see SVGParserRenderer.optimizeBytecode().
+		out.writeInt(image.styleList.size());
+		for (final SvgStyle s : image.styleList) {
+			out.writeByte((s.hasFill ? STYLE_HAS_FILL : 0) | (s.hasStroke ? STYLE_HAS_STROKE : 0));
+			out.writeFloat(s.masterOpacity);
+			out.writeFloat(s.fillOpacity);
+			out.writeFloat(s.strokeOpacity);
+			out.writeInt(s.fillColour);
+			out.writeInt(s.strokeColour);
+			out.writeInt(s.fillGradient);
+			out.writeInt(s.strokeGradient);
+			out.writeFloat(s.strokeWidth);
+			out.writeFloat(s.textSize);
+			out.writeFloat(s.textScaleX);
+			out.writeByte(s.textAlign);
+			writeString(out, s.fontFamily);
+		}
+		out.writeInt(image.textstringList.size());
+		for (final Textstring ts : image.textstringList) {
+			out.writeFloat(ts.x);
+			out.writeFloat(ts.y);
+			out.writeInt(ts.charLength);
+			for (int i = 0; i < ts.charLength; i++) {
+				out.writeChar(ts.charBuf[i]);
+			}
+		}
+
+		out.writeInt(image.idstringList.size());
+		for (final String id : image.idstringList) {
+			writeString(out, id);
+		}
+
+		out.writeInt(image.arcsList.size());
+		for (final Arc arc : image.arcsList) {
+			out.writeFloat(arc.left);
+			out.writeFloat(arc.top);
+			out.writeFloat(arc.right);
+			out.writeFloat(arc.bottom);
+			out.writeFloat(arc.angleStart);
+			out.writeFloat(arc.angleExtent);
+			writeString(out, arc.animId);
+		}
+
+		out.writeInt(image.subtreeJumpMap.size());
+		final Iterator<Map.Entry<String, Integer>> jumps = image.subtreeJumpMap.entrySet().iterator();
+		while (jumps.hasNext()) {
+			final Map.Entry<String, Integer> entry = jumps.next();
+			writeString(out, entry.getKey());
+			out.writeInt(entry.getValue());
+		}
+
+		out.writeInt(image.mPrivateDataMap.size());
+		final Iterator<Map.Entry<String, String>> privateData = image.mPrivateDataMap.entrySet().iterator();
+		while (privateData.hasNext()) {
+			final Map.Entry<String, String> entry = privateData.next();
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+
+		out.flush();
+	}
+
+
+	private static void writeFloats(final DataOutputStream out, final float[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			out.writeFloat(values[i]);
+		}
+	}
+
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		if (null == value) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(value.length());
+		out.writeChars(value);
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Build time SVG compiler. It parses SVG files and writes them as compiled documents (see
+ * SVGCompiledFormat) into a directory that is packaged with the application's assets, where
+ * SVGParserFactory finds them and loads them instead of parsing the SVG on the device.
+ * Parsing does not call into the Android runtime, so the compiler runs on a plain Java VM with only
+ * the platform's android.jar on the class path to resolve the library's classes. See svgc.gradle
+ * for the Gradle task that runs it.
+ *
+ * Usage: SVGCompiler output_directory [res/raw directory] [assets directory]
+ * Every *.svg and *.svgz file found is compiled. Missing source directories are skipped. A file
+ * that cannot be parsed fails the build.
+ */
+public final class SVGCompiler {
+
+	private SVGCompiler() {
+
+	}
+
+
+	/**
+	 * Parse one SVG document and write its compiled form.
+	 */
+	public static void compile(final InputStream svgStream, final OutputStream compiledStream) throws IOException {
+		compile(svgStream, compiledStream, null);
+	}
+
+
+	/**
+	 * Parse one SVG document and write its compiled form, with an intern table shared with other
+	 * documents of the batch (see SVGInternTable), or null. Unlike a parse on the device, a
+	 * document that cannot be read is an error: nothing is written, as a partly parsed document
+	 * would be loaded in place of the SVG.
+	 */
+	public static void compile(final InputStream svgStream, final OutputStream compiledStream, final SVGInternTable table) throws IOException {
+		final SVGParserRenderer image = new SVGParserRenderer();
+		if (null != table) {
+			image.setInternTable(table);
+		}
+		try {
+			image.parseDocument(svgStream, true);
+		}
+		catch (final IOException e) {
+			throw e;
+		}
+		catch (final Exception e) {
+			final IOException ioe = new IOException("Cannot parse SVG document: " + e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		}
+		image.writeCompiled(compiledStream);
+	}
+
+
+	private static int compileDirectory(final File sourceDir, final String path, final File outputRoot, final boolean raw,
+			final SVGInternTable table) throws IOException {
+		int count = 0;
+		final File[] files = sourceDir.listFiles();
+		if (null == files) {
+			return 0;
+		}
+		for (final File file : files) {
+			final String name = file.getName();
+			if (file.isDirectory()) {
+				// res/raw cannot have sub-directories, assets can.
+				if (!raw) {
+					count += compileDirectory(file, path + name + "/", outputRoot, raw, table);
+				}
+			}
+			else if (name.toLowerCase().endsWith(".svg") || name.toLowerCase().endsWith(".svgz")) {
+				final String assetName = raw
+						? SVGCompiledFormat.assetNameForRawResource(name.substring(0, name.lastIndexOf('.')))
+						: SVGCompiledFormat.assetNameForAsset(path + name);
+				compileFile(file, new File(outputRoot, assetName), table);
+				count++;
+			}
+		}
+		return count;
+	}
+
+
+	private static void compileFile(final File svgFile, final File compiledFile, final SVGInternTable table) throws IOException {
+		final File parent = compiledFile.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+
+		final InputStream inStream = new BufferedInputStream(new FileInputStream(svgFile));
+		boolean compiled = false;
+		try {
+			final OutputStream outStream = new BufferedOutputStream(new FileOutputStream(compiledFile));
+			try {
+				compile(inStream, outStream, table);
+				compiled = true;
+			}
+			catch (final IOException e) {
+				final IOException ioe = new IOException(svgFile + ": " + e.getMessage());
+				ioe.initCause(e);
+				throw ioe;
+			}
+			finally {
+				outStream.close();
+				// Leave no empty or partly written file behind.
+				if (!compiled) {
+					compiledFile.delete();
+				}
+			}
+		}
+		finally {
+			inStream.close();
+		}
+	}
+
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1 || args.length > 3) {
+			System.err.println("Usage: SVGCompiler output_directory [res/raw directory] [assets directory]");
+			System.exit(2);
+		}
+
+		final File outputRoot = new File(args[0]);
+		// The files of an application usually come from the same editor, and share a lot of their
+		// style and transform values.
+		final SVGInternTable table = new SVGInternTable();
+		int count = 0;
+		if (args.length > 1) {
+			count += compileDirectory(new File(args[1]), "", outputRoot, true, table);
+		}
+		if (args.length > 2) {
+			count += compileDirectory(new File(args[2]), "", outputRoot, false, table);
+		}
+		System.out.println("SVGCompiler: compiled " + count + " SVG file(s) into " + outputRoot + " (interned " + table + ")");
+	}
+
+}
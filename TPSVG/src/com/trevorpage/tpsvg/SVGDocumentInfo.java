@@ -0,0 +1,231 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+
+import android.content.Context;
+
+
+/**
+ * The size and private data of an SVG document, found by scanning it without parsing it into an
+ * image. Use it to measure or lay out a view, or to configure a controller, before (or instead
+ * of) parsing the whole document. A scan for the size only reads as far as the root svg element. A
+ * scan for the private data as well reads the whole document, but looks at nothing except element
+ * names and the text of the private data elements, so no styles, transforms or paths are parsed.
+ */
+public final class SVGDocumentInfo {
+
+	/**
+	 * SAX handler that fills in an SVGDocumentInfo.
+	 */
+	private static final class Scanner extends DefaultHandler {
+		final SVGDocumentInfo	mInfo		= new SVGDocumentInfo();
+
+
+		// Local name of the private data element whose text is being read, or null.
+		private String			mKey;
+
+
+		private final String	mNamespace;
+
+
+		private boolean			mRoot		= true;
+
+
+		private final StringBuilder	mText	= new StringBuilder();
+
+
+		Scanner(final String namespace) {
+			mNamespace = namespace;
+		}
+
+
+		@Override
+		public void characters(final char[] ch, final int start, final int length) {
+			if (null != mKey) {
+				mText.append(ch, start, length);
+			}
+		}
+
+
+		@Override
+		public void endElement(final String uri, final String localName, final String qName) {
+			if (null != mKey) {
+				mInfo.mPrivateData.put(mKey, mText.toString());
+				mKey = null;
+			}
+		}
+
+
+		/**
+		 * As SVGParserRenderer's, external entities are never fetched.
+		 */
+		@Override
+		public InputSource resolveEntity(final String publicId, final String systemId) {
+			return new InputSource(new StringReader(""));
+		}
+
+
+		@Override
+		public void startElement(final String uri, final String localName, final String qName, final Attributes attributes)
+				throws SAXException {
+			if (mRoot) {
+				mRoot = false;
+				if (SVGNames.tag(localName) == SVGNames.TAG_SVG) {
+					// A missing width or height is 0, as it is when the document is parsed.
+					mInfo.mWidth = 0;
+					mInfo.mHeight = 0;
+					for (int i = attributes.getLength() - 1; i >= 0; i--) {
+						switch (SVGNames.attribute(attributes.getLocalName(i))) {
+							case SVGNames.ATTR_WIDTH:
+								mInfo.mWidth = SVGParserRenderer.parseCoOrdinate(attributes.getValue(i).trim());
+								break;
+
+							case SVGNames.ATTR_HEIGHT:
+								mInfo.mHeight = SVGParserRenderer.parseCoOrdinate(attributes.getValue(i).trim());
+								break;
+						}
+					}
+				}
+				if (null == mNamespace) {
+					throw new SAXException(STOP);
+				}
+			}
+
+			if (null != mNamespace && qName.startsWith(mNamespace)) {
+				mKey = localName;
+				mText.setLength(0);
+			}
+		}
+	}
+
+
+	// Message of the exception that ends a scan for the size only.
+	private static final String				STOP		= "stop";
+
+
+	// As SVGParserRenderer's, for a document without a root svg element.
+	private float							mHeight		= 100;
+
+
+	private final HashMap<String, String>	mPrivateData	= new HashMap<String, String>();
+
+
+	private float							mWidth		= 100;
+
+
+	private SVGDocumentInfo() {
+
+	}
+
+
+	/**
+	 * Scan a raw resource. See scan(InputStream, String).
+	 */
+	public static SVGDocumentInfo scan(final Context context, final int resourceID, final String privateDataNamespace)
+			throws IOException {
+		final InputStream inStream = context.getResources().openRawResource(resourceID);
+		try {
+			return scan(inStream, privateDataNamespace);
+		}
+		finally {
+			inStream.close();
+		}
+	}
+
+
+	/**
+	 * Scan an SVG (or gzip compressed .svgz) document.
+	 *
+	 * @param privateDataNamespace
+	 *            Prefix of the private data elements, usually
+	 *            SVGParserRenderer.DEFAULT_PRIVATE_DATA_NAMESPACE, or null to only find the size.
+	 * @throws IOException
+	 *             If the document cannot be read as far as the scan needs. Unlike a parse, which
+	 *             keeps whatever it found before the problem, a scan would otherwise report the
+	 *             default size.
+	 */
+	public static SVGDocumentInfo scan(final InputStream inStream, final String privateDataNamespace) throws IOException {
+		final Scanner scanner = new Scanner(privateDataNamespace);
+		try {
+			SVGParserRenderer.readXml(inStream, scanner, false);
+		}
+		catch (final IOException e) {
+			throw e;
+		}
+		catch (final Exception e) {
+			// Unless it is the end of a scan for the size only.
+			if (!(e instanceof SAXException) || !STOP.equals(e.getMessage())) {
+				final IOException ioe = new IOException("Cannot scan SVG document: " + e.getMessage());
+				ioe.initCause(e);
+				throw ioe;
+			}
+		}
+		return scanner.mInfo;
+	}
+
+
+	/**
+	 * Scan an asset. See scan(InputStream, String).
+	 */
+	public static SVGDocumentInfo scan(final Context context, final String assetPath, final String privateDataNamespace)
+			throws IOException {
+		final InputStream inStream = context.getAssets().open(assetPath);
+		try {
+			return scan(inStream, privateDataNamespace);
+		}
+		finally {
+			inStream.close();
+		}
+	}
+
+
+	/**
+	 * @return The height specified by the root svg element, as SVGParserRenderer.getDocumentHeight().
+	 */
+	public int getDocumentHeight() {
+		return Math.round(mHeight);
+	}
+
+
+	/**
+	 * @return The width specified by the root svg element, as SVGParserRenderer.getDocumentWidth().
+	 */
+	public int getDocumentWidth() {
+		return Math.round(mWidth);
+	}
+
+
+	/**
+	 * @return The text of the private data element with a local name, or null. Always null after a
+	 *         scan for the size only.
+	 */
+	public String getPrivateDataValue(final String key) {
+		return mPrivateData.get(key);
+	}
+
+
+	/**
+	 * Pass each item of private data to a controller, as SVGParserRenderer.obtainSVGPrivateData().
+	 */
+	public void obtainSVGPrivateData(final ITpsvgController controller) {
+		final Iterator<Map.Entry<String, String>> it = mPrivateData.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<String, String> pairs = it.next();
+			controller.onSVGPrivateData(pairs.getKey(), pairs.getValue());
+		}
+	}
+
+}
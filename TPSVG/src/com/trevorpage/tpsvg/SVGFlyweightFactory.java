@@ -30,7 +30,10 @@ public class SVGFlyweightFactory {
 			image = images.get("resource" + resourceID);
 		}
 		else {
-			image = new SVGParserRenderer(context, resourceID); 
+			image = SVGParserFactory.loadCompiled(context, resourceID);
+			if (image == null) {
+				image = new SVGParserRenderer(context, resourceID);
+			}
 			images.put("resource" + resourceID, image);
 		}
 		return image;
@@ -0,0 +1,198 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * Decompresses a gzip stream, such as an .svgz file, while the parser reads it, so that the
+ * uncompressed document is never held in memory as a whole. Unlike a GZIPInputStream, which
+ * allocates a native Inflater and a buffer for each stream, each thread keeps one Inflater and
+ * input buffer and reuses them for every document it parses. Call release() when done; the
+ * underlying stream is left open.
+ * The trailer of the gzip stream is not checked, and only its first member is read.
+ */
+final class SVGGzipInputStream extends InputStream {
+
+	/**
+	 * An Inflater and its input buffer.
+	 */
+	private static final class State {
+		final byte[]	buffer		= new byte[8192];
+
+
+		final Inflater	inflater	= new Inflater(true);
+
+
+		boolean			inUse;
+	}
+
+
+	private static final int				FLAG_COMMENT	= 16;
+
+
+	private static final int				FLAG_EXTRA		= 4;
+
+
+	private static final int				FLAG_HEADER_CRC	= 2;
+
+
+	private static final int				FLAG_NAME		= 8;
+
+
+	private static final int				MAGIC_0			= 0x1f;
+
+
+	private static final int				MAGIC_1			= 0x8b;
+
+
+	private static final int				METHOD_DEFLATE	= 8;
+
+
+	private static final ThreadLocal<State>	states			= new ThreadLocal<State>();
+
+
+	private final InputStream				mIn;
+
+
+	private final byte[]					mOneByte		= new byte[1];
+
+
+	private State							mState;
+
+
+	/**
+	 * Read the gzip header, which the stream must start with (see isGzip()).
+	 */
+	SVGGzipInputStream(final InputStream in) throws IOException {
+		mIn = in;
+		if (readByte() != MAGIC_0 || readByte() != MAGIC_1 || readByte() != METHOD_DEFLATE) {
+			throw new IOException("Not a gzip stream");
+		}
+		final int flags = readByte();
+		// Modification time, extra flags and operating system.
+		skipBytes(6);
+		if ((flags & FLAG_EXTRA) != 0) {
+			skipBytes(readByte() | readByte() << 8);
+		}
+		if ((flags & FLAG_NAME) != 0) {
+			while (readByte() != 0) {
+				// Skip the zero terminated file name.
+			}
+		}
+		if ((flags & FLAG_COMMENT) != 0) {
+			while (readByte() != 0) {
+				// Skip the zero terminated comment.
+			}
+		}
+		if ((flags & FLAG_HEADER_CRC) != 0) {
+			skipBytes(2);
+		}
+
+		mState = states.get();
+		if (null == mState) {
+			mState = new State();
+			states.set(mState);
+		}
+		else if (mState.inUse) {
+			// Another gzip stream is being read on this thread. Not kept, see release().
+			mState = new State();
+		}
+		mState.inUse = true;
+	}
+
+
+	/**
+	 * @return Whether a stream starts with the gzip magic number. The stream must support mark(),
+	 *         and is left at its start.
+	 */
+	static boolean isGzip(final InputStream in) throws IOException {
+		in.mark(2);
+		try {
+			return in.read() == MAGIC_0 && in.read() == MAGIC_1;
+		}
+		finally {
+			in.reset();
+		}
+	}
+
+
+	@Override
+	public int read() throws IOException {
+		return read(mOneByte, 0, 1) == -1 ? -1 : mOneByte[0] & 0xff;
+	}
+
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (null == mState) {
+			throw new IOException("Stream released");
+		}
+		if (len == 0) {
+			return 0;
+		}
+		final Inflater inflater = mState.inflater;
+		try {
+			while (true) {
+				final int count = inflater.inflate(b, off, len);
+				if (count > 0) {
+					return count;
+				}
+				if (inflater.finished()) {
+					return -1;
+				}
+				if (inflater.needsDictionary()) {
+					throw new IOException("Unsupported gzip stream");
+				}
+				if (inflater.needsInput()) {
+					final int read = mIn.read(mState.buffer, 0, mState.buffer.length);
+					if (read == -1) {
+						throw new EOFException("Unexpected end of gzip stream");
+					}
+					inflater.setInput(mState.buffer, 0, read);
+				}
+			}
+		}
+		catch (final DataFormatException e) {
+			throw new IOException("Corrupt gzip stream: " + e.getMessage());
+		}
+	}
+
+
+	private int readByte() throws IOException {
+		final int b = mIn.read();
+		if (b == -1) {
+			throw new EOFException("Unexpected end of gzip header");
+		}
+		return b;
+	}
+
+
+	/**
+	 * Give the Inflater back for the thread's next document. The stream cannot be read after.
+	 */
+	void release() {
+		if (null != mState) {
+			if (mState == states.get()) {
+				mState.inflater.reset();
+				mState.inUse = false;
+			}
+			else {
+				mState.inflater.end();
+			}
+			mState = null;
+		}
+	}
+
+
+	private void skipBytes(final int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			readByte();
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.trevorpage.tpsvg;
+
+
+import java.util.HashMap;
+
+
+/**
+ * Parse results of attribute values, keyed by the raw value string, so that a value that is
+ * repeated throughout a document (editors such as Inkscape write the same style, colour and
+ * transform strings over and over) is only parsed once. Each parse uses a table of its own by
+ * default, and empties it when the parse ends; one table can also be shared by a batch of parses
+ * with SVGParserRenderer.setInternTable(), in which case it keeps its entries until clear() is
+ * called. The hit counters show how much it saves.
+ * A table can be shared between threads.
+ */
+public final class SVGInternTable {
+
+	/**
+	 * The declarations of a style attribute, split up and looked up. Never modified once it is in
+	 * a table.
+	 */
+	static final class Style {
+		// The SVGNames.ATTR_ code of each declaration that the parser handles.
+		final int[]		codes;
+
+
+		final String[]	values;
+
+
+		Style(final int[] codes, final String[] values) {
+			this.codes = codes;
+			this.values = values;
+		}
+	}
+
+
+	public static final int						KIND_COLOUR		= 0;
+
+
+	public static final int						KIND_STYLE		= 1;
+
+
+	public static final int						KIND_TRANSFORM	= 2;
+
+
+	private final HashMap<String, Integer>		mColours		= new HashMap<String, Integer>();
+
+
+	private final int[]							mHits			= new int[3];
+
+
+	private final int[]							mMisses			= new int[3];
+
+
+	private final HashMap<String, Style>		mStyles			= new HashMap<String, Style>();
+
+
+	private final HashMap<String, float[]>		mTransforms		= new HashMap<String, float[]>();
+
+
+	/**
+	 * Forget every entry. The hit counters are kept.
+	 */
+	public synchronized void clear() {
+		mColours.clear();
+		mStyles.clear();
+		mTransforms.clear();
+	}
+
+
+	/**
+	 * @return The colour parsed from a value, or null if the table does not have it (counted as a
+	 *         miss).
+	 */
+	synchronized Integer getColour(final String value) {
+		return count(KIND_COLOUR, mColours.get(value));
+	}
+
+
+	/**
+	 * @return The number of values of a kind that were found in the table.
+	 */
+	public synchronized int getHits(final int kind) {
+		return mHits[kind];
+	}
+
+
+	/**
+	 * @return The fraction of lookups of a kind that were found in the table, 0 if there were none.
+	 */
+	public synchronized float getHitRate(final int kind) {
+		final int lookups = mHits[kind] + mMisses[kind];
+		return 0 == lookups ? 0 : (float) mHits[kind] / lookups;
+	}
+
+
+	/**
+	 * @return The number of values of a kind that had to be parsed.
+	 */
+	public synchronized int getMisses(final int kind) {
+		return mMisses[kind];
+	}
+
+
+	synchronized Style getStyle(final String value) {
+		return count(KIND_STYLE, mStyles.get(value));
+	}
+
+
+	/**
+	 * @return The matrix parsed from a transform value, or null. It must not be modified.
+	 */
+	synchronized float[] getTransform(final String value) {
+		return count(KIND_TRANSFORM, mTransforms.get(value));
+	}
+
+
+	private <T> T count(final int kind, final T result) {
+		if (null == result) {
+			mMisses[kind]++;
+		}
+		else {
+			mHits[kind]++;
+		}
+		return result;
+	}
+
+
+	synchronized void putColour(final String value, final Integer colour) {
+		mColours.put(value, colour);
+	}
+
+
+	synchronized void putStyle(final String value, final Style style) {
+		mStyles.put(value, style);
+	}
+
+
+	synchronized void putTransform(final String value, final float[] matrix) {
+		mTransforms.put(value, matrix);
+	}
+
+
+	@Override
+	public synchronized String toString() {
+		return "colours " + describe(KIND_COLOUR) + ", styles " + describe(KIND_STYLE) + ", transforms " + describe(KIND_TRANSFORM);
+	}
+
+
+	private String describe(final int kind) {
+		return mHits[kind] + "/" + (mHits[kind] + mMisses[kind]) + " hits";
+	}
+
+}
@@ -0,0 +1,382 @@
+package com.trevorpage.tpsvg;
+
+
+/**
+ * Maps the element and attribute names that the parser handles to int codes, for the SAX handler
+ * to switch on. Names are told apart by their length and one or two of their characters, and then
+ * compared in full, so a lookup makes no allocations and unknown names (such as the many sodipodi:
+ * and inkscape: attributes in Inkscape files) are rejected after a few comparisons.
+ * Element names are matched ignoring case. Attribute names are case sensitive, and a '_' is
+ * accepted in place of each '-'.
+ */
+final class SVGNames {
+
+	static final int	ATTR_CX					= 1;
+
+
+	static final int	ATTR_CY					= 2;
+
+
+	static final int	ATTR_D					= 3;
+
+
+	static final int	ATTR_FILL				= 4;
+
+
+	static final int	ATTR_FILL_OPACITY		= 5;
+
+
+	static final int	ATTR_FONT_FAMILY		= 6;
+
+
+	static final int	ATTR_FONT_SIZE			= 7;
+
+
+	static final int	ATTR_FX					= 8;
+
+
+	static final int	ATTR_FY					= 9;
+
+
+	static final int	ATTR_GRADIENTTRANSFORM	= 10;
+
+
+	static final int	ATTR_HEIGHT				= 11;
+
+
+	static final int	ATTR_HREF				= 12;
+
+
+	static final int	ATTR_ID					= 13;
+
+
+	static final int	ATTR_OPACITY			= 14;
+
+
+	static final int	ATTR_POINTS				= 15;
+
+
+	static final int	ATTR_R					= 16;
+
+
+	static final int	ATTR_STOP_COLOR			= 17;
+
+
+	static final int	ATTR_STOP_OPACITY		= 18;
+
+
+	static final int	ATTR_STROKE				= 19;
+
+
+	static final int	ATTR_STROKE_FILL		= 20;
+
+
+	static final int	ATTR_STROKE_OPACITY		= 21;
+
+
+	static final int	ATTR_STROKE_WIDTH		= 22;
+
+
+	static final int	ATTR_STYLE				= 23;
+
+
+	static final int	ATTR_TEXT_ALIGN			= 24;
+
+
+	static final int	ATTR_TRANSFORM			= 25;
+
+
+	/** Any attribute that the parser does not handle. */
+	static final int	ATTR_UNKNOWN			= 0;
+
+
+	static final int	ATTR_WIDTH				= 26;
+
+
+	static final int	ATTR_X					= 27;
+
+
+	static final int	ATTR_X1					= 28;
+
+
+	static final int	ATTR_X2					= 29;
+
+
+	static final int	ATTR_Y					= 30;
+
+
+	static final int	ATTR_Y1					= 31;
+
+
+	static final int	ATTR_Y2					= 32;
+
+
+	static final int	TAG_CIRCLE				= 1;
+
+
+	static final int	TAG_DEFS				= 2;
+
+
+	static final int	TAG_G					= 3;
+
+
+	static final int	TAG_LINE				= 4;
+
+
+	static final int	TAG_LINEARGRADIENT		= 5;
+
+
+	static final int	TAG_PATH				= 6;
+
+
+	static final int	TAG_POLYGON				= 7;
+
+
+	static final int	TAG_RADIALGRADIENT		= 8;
+
+
+	static final int	TAG_RECT				= 9;
+
+
+	static final int	TAG_STOP				= 10;
+
+
+	static final int	TAG_SVG					= 11;
+
+
+	static final int	TAG_TEXT				= 12;
+
+
+	static final int	TAG_TEXTPATH			= 13;
+
+
+	static final int	TAG_TSPAN				= 14;
+
+
+	/** Any element that the parser does not handle. */
+	static final int	TAG_UNKNOWN				= 0;
+
+
+	private SVGNames() {
+
+	}
+
+
+	/**
+	 * @return The ATTR_ code of an attribute's local name, or ATTR_UNKNOWN.
+	 */
+	static int attribute(final String name) {
+		return attribute(name, 0, name.length());
+	}
+
+
+	/**
+	 * @return The ATTR_ code of the attribute or style property name at [start, end) in a string,
+	 *         or ATTR_UNKNOWN.
+	 */
+	static int attribute(final String name, final int start, final int end) {
+		final int length = end - start;
+		if (length <= 0) {
+			return ATTR_UNKNOWN;
+		}
+		final char c0 = name.charAt(start);
+		switch (length) {
+			case 1:
+				switch (c0) {
+					case 'd':
+						return ATTR_D;
+					case 'r':
+						return ATTR_R;
+					case 'x':
+						return ATTR_X;
+					case 'y':
+						return ATTR_Y;
+				}
+				break;
+
+			case 2: {
+				final char c1 = name.charAt(start + 1);
+				switch (c0) {
+					case 'c':
+						return c1 == 'x' ? ATTR_CX : c1 == 'y' ? ATTR_CY : ATTR_UNKNOWN;
+					case 'f':
+						return c1 == 'x' ? ATTR_FX : c1 == 'y' ? ATTR_FY : ATTR_UNKNOWN;
+					case 'i':
+						return c1 == 'd' ? ATTR_ID : ATTR_UNKNOWN;
+					case 'x':
+						return c1 == '1' ? ATTR_X1 : c1 == '2' ? ATTR_X2 : ATTR_UNKNOWN;
+					case 'y':
+						return c1 == '1' ? ATTR_Y1 : c1 == '2' ? ATTR_Y2 : ATTR_UNKNOWN;
+				}
+				break;
+			}
+
+			case 4:
+				if (c0 == 'f') {
+					return is(name, start, "fill", ATTR_FILL);
+				}
+				if (c0 == 'h') {
+					return is(name, start, "href", ATTR_HREF);
+				}
+				break;
+
+			case 5:
+				if (c0 == 'w') {
+					return is(name, start, "width", ATTR_WIDTH);
+				}
+				if (c0 == 's') {
+					return is(name, start, "style", ATTR_STYLE);
+				}
+				break;
+
+			case 6:
+				switch (c0) {
+					case 'h':
+						return is(name, start, "height", ATTR_HEIGHT);
+					case 'p':
+						return is(name, start, "points", ATTR_POINTS);
+					case 's':
+						return is(name, start, "stroke", ATTR_STROKE);
+				}
+				break;
+
+			case 7:
+				if (c0 == 'o') {
+					return is(name, start, "opacity", ATTR_OPACITY);
+				}
+				break;
+
+			case 9:
+				if (c0 == 'f') {
+					return is(name, start, "font-size", ATTR_FONT_SIZE);
+				}
+				if (c0 == 't') {
+					return is(name, start, "transform", ATTR_TRANSFORM);
+				}
+				break;
+
+			case 10:
+				if (c0 == 's') {
+					return is(name, start, "stop-color", ATTR_STOP_COLOR);
+				}
+				if (c0 == 't') {
+					return is(name, start, "text-align", ATTR_TEXT_ALIGN);
+				}
+				break;
+
+			case 11:
+				if (c0 == 'f') {
+					return is(name, start, "font-family", ATTR_FONT_FAMILY);
+				}
+				if (c0 == 's') {
+					return is(name, start, "stroke-fill", ATTR_STROKE_FILL);
+				}
+				break;
+
+			case 12:
+				if (c0 == 'f') {
+					return is(name, start, "fill-opacity", ATTR_FILL_OPACITY);
+				}
+				if (c0 == 's') {
+					if (name.charAt(start + 2) == 'o') {
+						return is(name, start, "stop-opacity", ATTR_STOP_OPACITY);
+					}
+					return is(name, start, "stroke-width", ATTR_STROKE_WIDTH);
+				}
+				break;
+
+			case 14:
+				if (c0 == 's') {
+					return is(name, start, "stroke-opacity", ATTR_STROKE_OPACITY);
+				}
+				break;
+
+			case 17:
+				if (c0 == 'g') {
+					return is(name, start, "gradientTransform", ATTR_GRADIENTTRANSFORM);
+				}
+				break;
+		}
+		return ATTR_UNKNOWN;
+	}
+
+
+	/**
+	 * @return code if the name at start is the attribute name expected, else ATTR_UNKNOWN. The
+	 *         lengths are already known to be equal.
+	 */
+	private static int is(final String name, final int start, final String expected, final int code) {
+		for (int i = expected.length() - 1; i > 0; i--) {
+			final char c = name.charAt(start + i);
+			final char e = expected.charAt(i);
+			if (c != e && !(e == '-' && c == '_')) {
+				return ATTR_UNKNOWN;
+			}
+		}
+		return code;
+	}
+
+
+	/**
+	 * @return The TAG_ code of an element's local name, or TAG_UNKNOWN.
+	 */
+	static int tag(final String name) {
+		final int length = name.length();
+		if (length == 0) {
+			return TAG_UNKNOWN;
+		}
+		final char c0 = Character.toLowerCase(name.charAt(0));
+		switch (length) {
+			case 1:
+				return c0 == 'g' ? TAG_G : TAG_UNKNOWN;
+
+			case 3:
+				return tagIs(name, "svg", TAG_SVG);
+
+			case 4:
+				switch (c0) {
+					case 'd':
+						return tagIs(name, "defs", TAG_DEFS);
+					case 'l':
+						return tagIs(name, "line", TAG_LINE);
+					case 'p':
+						return tagIs(name, "path", TAG_PATH);
+					case 'r':
+						return tagIs(name, "rect", TAG_RECT);
+					case 's':
+						return tagIs(name, "stop", TAG_STOP);
+					case 't':
+						return tagIs(name, "text", TAG_TEXT);
+				}
+				break;
+
+			case 5:
+				return tagIs(name, "tspan", TAG_TSPAN);
+
+			case 6:
+				return tagIs(name, "circle", TAG_CIRCLE);
+
+			case 7:
+				return tagIs(name, "polygon", TAG_POLYGON);
+
+			case 8:
+				return tagIs(name, "textPath", TAG_TEXTPATH);
+
+			case 14:
+				if (c0 == 'l') {
+					return tagIs(name, "linearGradient", TAG_LINEARGRADIENT);
+				}
+				if (c0 == 'r') {
+					return tagIs(name, "radialGradient", TAG_RADIALGRADIENT);
+				}
+				break;
+		}
+		return TAG_UNKNOWN;
+	}
+
+
+	private static int tagIs(final String name, final String expected, final int code) {
+		return name.equalsIgnoreCase(expected) ? code : TAG_UNKNOWN;
+	}
+
+}
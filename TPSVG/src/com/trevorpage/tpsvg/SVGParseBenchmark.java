@@ -0,0 +1,72 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Compares the two parser front ends, SAX and XmlPullParser (see
+ * SVGParserRenderer.setPullParser()), on one document. Only parsing is timed, not the creation of
+ * the Paths and Paints that follows it. Run it on the device, for example from a debug activity:
+ *
+ * Log.i(TAG, SVGParseBenchmark.run(getResources().openRawResource(R.raw.gauge), 20));
+ */
+public final class SVGParseBenchmark {
+
+	private SVGParseBenchmark() {
+
+	}
+
+
+	/**
+	 * @return Mean time of one parse in milliseconds.
+	 */
+	private static double time(final byte[] document, final boolean pullParser, final int runs) {
+		long total = 0;
+		for (int i = 0; i < runs; i++) {
+			final SVGParserRenderer image = new SVGParserRenderer();
+			image.setPullParser(pullParser);
+			final long start = System.nanoTime();
+			image.parseDocument(new ByteArrayInputStream(document));
+			total += System.nanoTime() - start;
+		}
+		return total / 1e6 / runs;
+	}
+
+
+	/**
+	 * Parse a document the given number of times with each front end, after one run of each to
+	 * warm up. The document is read into memory first, so reading it is not timed.
+	 *
+	 * @return A one line report of the mean time of each front end.
+	 */
+	public static String run(final InputStream in, final int runs) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int count;
+		try {
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+		}
+		finally {
+			in.close();
+		}
+		final byte[] document = out.toByteArray();
+
+		if (!SVGPullParser.isAvailable()) {
+			return String.format("SAX %.2f ms per parse, no XmlPullParser available (%d bytes, %d runs)",
+					time(document, false, runs), document.length, runs);
+		}
+
+		time(document, false, 1);
+		time(document, true, 1);
+		final double sax = time(document, false, runs);
+		final double pull = time(document, true, runs);
+		return String.format("SAX %.2f ms, pull %.2f ms per parse (%d bytes, %d runs)", sax, pull, document.length, runs);
+	}
+
+}
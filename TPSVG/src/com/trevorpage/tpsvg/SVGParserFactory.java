@@ -1,9 +1,12 @@
 package com.trevorpage.tpsvg;
 
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 
 import android.app.ActivityManager;
@@ -12,10 +15,141 @@ import android.content.res.Resources;
 
 
 public class SVGParserFactory {
-	private static SVGParserFactoryLruMap	cache	= null;
+	private static SVGParserFactoryLruMap	cache				= null;
 
 
+	// Whether the application's assets contain any documents made by the build time compiler.
+	// Checked once, so that applications that do not use it never pay for a failed asset lookup.
+	private static Boolean					hasCompiledAssets	= null;
+
+
+	/**
+	 * Get the image for an SVG file in the application's assets, such as "images/dial.svg". The
+	 * file may be gzip compressed, such as "images/dial.svgz". A compiled document made for it at
+	 * build time is used if there is one.
+	 */
+	public static SVGParserRenderer create(final Context context, final String assetPath) throws IOException {
+		SVGParserRenderer value = getCached(context, assetPath);
+		if (null == value) {
+			value = loadCompiled(context, SVGCompiledFormat.assetNameForAsset(assetPath));
+			if (null == value) {
+				final InputStream inStream = context.getAssets().open(assetPath);
+				try {
+					value = new SVGParserRenderer(context, inStream);
+				}
+				finally {
+					inStream.close();
+				}
+			}
+			value = publish(assetPath, value);
+		}
+
+		return value;
+	}
+
+
+	/**
+	 * Get the image for an SVG raw resource. A compiled document made for it at build time is used
+	 * if there is one.
+	 * This may be called from any thread. Images are parsed outside of the factory's lock, so
+	 * several can be parsed at once; see preload().
+	 */
 	public static SVGParserRenderer create(final Context context, final int raw_resource) {
+		final Integer key = Integer.valueOf(raw_resource);
+		SVGParserRenderer value = getCached(context, key);
+		if (null == value) {
+			value = loadCompiled(context, raw_resource);
+			if (null == value) {
+				value = new SVGParserRenderer(context, raw_resource);
+			}
+			value = publish(key, value);
+		}
+
+		return value;
+	}
+
+
+	/**
+	 * Get an image of only some groups of an SVG raw resource, such as one sprite of a sheet,
+	 * parsed without the rest of the document (see SVGParserRenderer.setSubtrees()). It is cached
+	 * apart from the whole image. Compiled documents are not used, as they hold the whole image.
+	 */
+	public static SVGParserRenderer createSubtrees(final Context context, final int raw_resource, final String... subtreeIds) {
+		final StringBuilder key = new StringBuilder().append(raw_resource);
+		for (final String id : subtreeIds) {
+			key.append('#').append(id);
+		}
+		SVGParserRenderer value = getCached(context, key.toString());
+		if (null == value) {
+			value = new SVGParserRenderer();
+			value.setSubtrees(subtreeIds);
+			value.parseImageFile(context, raw_resource);
+			value = publish(key.toString(), value);
+		}
+
+		return value;
+	}
+
+
+	/**
+	 * Parse a batch of raw resources in the background, for example to warm up the images of a
+	 * screen before it is shown. Earlier resources in the array are parsed first. See
+	 * SVGPreloadTask.
+	 */
+	public static SVGPreloadTask preload(final Context context, final int[] raw_resources, final Executor executor) {
+		final int[] priorities = new int[raw_resources.length];
+		for (int i = 0; i < priorities.length; i++) {
+			priorities[i] = raw_resources.length - i;
+		}
+		return preload(context, raw_resources, priorities, executor, null);
+	}
+
+
+	/**
+	 * Parse a batch of raw resources in the background. Up to one image per processor is parsed at
+	 * a time on the executor, highest priority first, and each is put in the factory's cache as
+	 * soon as it is ready.
+	 *
+	 * @param priorities
+	 *            The priority of each resource, a higher value is parsed sooner. Can be changed
+	 *            while the task runs with SVGPreloadTask.setPriority().
+	 * @param listener
+	 *            Optional, told about every image and the end of the task, on the executor's
+	 *            threads.
+	 */
+	public static SVGPreloadTask preload(final Context context, final int[] raw_resources, final int[] priorities,
+			final Executor executor, final SVGPreloadTask.Listener listener) {
+		final SVGPreloadTask task = new SVGPreloadTask(context.getApplicationContext(), raw_resources, priorities, listener);
+		task.start(executor, Runtime.getRuntime().availableProcessors());
+		return task;
+	}
+
+
+	/**
+	 * Put a newly created image in the cache, unless another thread got there first.
+	 *
+	 * @return The image that is in the cache.
+	 */
+	private static synchronized SVGParserRenderer publish(final Object key, final SVGParserRenderer value) {
+		final SVGParserFactoryLruPair pair = cache.get(key);
+		final SVGParserRenderer cached = null == pair ? null : pair.ref.get();
+		if (null != cached) {
+			return cached;
+		}
+		cache.put(key, new SVGParserFactoryLruPair(value));
+		return value;
+	}
+
+
+	static synchronized SVGParserRenderer getCached(final Context context, final Object key) {
+		initCache(context);
+
+		final SVGParserFactoryLruPair pair = cache.get(key);
+		return null == pair ? null : pair.ref.get();
+	}
+
+
+	private static void initCache(final Context context) {
 		if (null == cache) {
 			int maxCacheLimit = 10;
 
@@ -35,23 +169,79 @@ public class SVGParserFactory {
 
 			cache = new SVGParserFactoryLruMap(1, maxCacheLimit, cacheSize);
 		}
+	}
 
-		final Integer key = Integer.valueOf(raw_resource);
-		SVGParserFactoryLruPair pair = cache.get(key);
 
-		SVGParserRenderer value = null;
-		if (null == pair || null == (value = pair.ref.get())) {
-			value = new SVGParserRenderer(context, raw_resource);
-			pair = new SVGParserFactoryLruPair(value);
-			cache.put(key, pair);
+	/**
+	 * Load the compiled document the build time compiler (see SVGCompiler) made for a raw resource.
+	 *
+	 * @return The image, or null if there is no usable compiled document and the SVG has to be
+	 *         parsed.
+	 */
+	static SVGParserRenderer loadCompiled(final Context context, final int raw_resource) {
+		if (!hasCompiledAssets(context)) {
+			return null;
 		}
+		final String entryName;
+		try {
+			entryName = context.getResources().getResourceEntryName(raw_resource);
+		}
+		catch (final Resources.NotFoundException e) {
+			return null;
+		}
+		return loadCompiled(context, SVGCompiledFormat.assetNameForRawResource(entryName));
+	}
 
-		return value;
+
+	private static SVGParserRenderer loadCompiled(final Context context, final String assetName) {
+		if (!hasCompiledAssets(context)) {
+			return null;
+		}
+		try {
+			return SVGParserRenderer.loadCompiledAsset(context, assetName);
+		}
+		catch (final IOException e) {
+			// Not compiled, or compiled by a different version of the library.
+			return null;
+		}
+	}
+
+
+	/**
+	 * Let go of the Paths of every cached image (see SVGParserRenderer.evictPaths()), for example
+	 * from onTrimMemory(). Call it from the thread that paints the images.
+	 */
+	public static synchronized void trimMemory() {
+		if (null == cache) {
+			return;
+		}
+		for (final SVGParserFactoryLruPair pair : cache.values()) {
+			final SVGParserRenderer image = pair.ref.get();
+			if (null != image) {
+				image.evictPaths();
+			}
+		}
+	}
+
+
+	private static synchronized boolean hasCompiledAssets(final Context context) {
+		if (null == hasCompiledAssets) {
+			boolean found = false;
+			try {
+				final String[] list = context.getAssets().list(SVGCompiledFormat.ASSET_DIRECTORY);
+				found = null != list && list.length > 0;
+			}
+			catch (final IOException e) {
+				// No assets at all.
+			}
+			hasCompiledAssets = Boolean.valueOf(found);
+		}
+		return hasCompiledAssets.booleanValue();
 	}
 }
 
 
-final class SVGParserFactoryLruMap extends LinkedHashMap<Integer, SVGParserFactoryLruPair>
+final class SVGParserFactoryLruMap extends LinkedHashMap<Object, SVGParserFactoryLruPair>
 {
 	private static final long	serialVersionUID	= -4489363415011810955L;
 
@@ -80,7 +270,7 @@ final class SVGParserFactoryLruMap extends LinkedHashMap<Integer, SVGParserFacto
 
 
 	@Override
-	public SVGParserFactoryLruPair put(final Integer key, final SVGParserFactoryLruPair value) {
+	public SVGParserFactoryLruPair put(final Object key, final SVGParserFactoryLruPair value) {
 		if (null != value) {
 			_currentMemory += value.size;
 		}
@@ -101,7 +291,7 @@ final class SVGParserFactoryLruMap extends LinkedHashMap<Integer, SVGParserFacto
 
 
 	@Override
-	protected boolean removeEldestEntry(final Map.Entry<Integer, SVGParserFactoryLruPair> eldest)
+	protected boolean removeEldestEntry(final Map.Entry<Object, SVGParserFactoryLruPair> eldest)
 	{
 		if (size() > _maxEntries && _maxEntries != -1) {
 			return true;
@@ -1,12 +1,23 @@
 package com.trevorpage.tpsvg;
 
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Stack;
@@ -14,7 +25,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
-import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 
@@ -22,11 +32,12 @@ import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
@@ -34,7 +45,6 @@ import android.graphics.LinearGradient;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.Path.Direction;
 import android.graphics.RadialGradient;
 import android.graphics.RectF;
 import android.graphics.Shader;
@@ -46,7 +56,7 @@ import android.view.View;
 
 public class SVGParserRenderer extends DefaultHandler {
 
-	private class Arc {
+	static class Arc {
 		float	angleExtent;
 
 
@@ -56,11 +66,18 @@ public class SVGParserRenderer extends DefaultHandler {
 		String	animId;
 
 
+		// Created from left, top, right and bottom when the image is prepared for rendering.
 		RectF	bounds;
 
 
-		public Arc(final RectF bounds, final float angleStart, final float angleExtent, final String animId) {
-			this.bounds = bounds;
+		float	left, top, right, bottom;
+
+
+		public Arc(final float left, final float top, final float right, final float bottom, final float angleStart, final float angleExtent, final String animId) {
+			this.left = left;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
 			this.angleStart = angleStart;
 			this.angleExtent = angleExtent;
 			this.animId = animId;
@@ -68,50 +85,6 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
-	private enum Attr {
-			cx,
-			cy,
-			d,
-			fill,
-			fill_opacity,
-			font_family,
-			font_size,
-			fx,
-			fy,
-			gradientTransform,
-			height,
-			href,
-			id,
-			novalue,
-			opacity,
-			points,
-			r,
-			stroke,
-			stroke_fill,
-			stroke_opacity,
-			stroke_width,
-			style,
-			text_align,
-			transform,
-			width,
-			x,
-			x1,
-			x2,
-			y,
-			y1,
-			y2;
-
-		public static Attr toAttr(final String str) {
-			try {
-				return valueOf(str.replace('-', '_'));
-			}
-			catch (final Exception e) {
-				return novalue;
-			}
-		}
-	}
-
-
 	/**
 	 * Class to encapsulate a gradient.
 	 * Alternatively we could have a map of Shader, with the key being the ID.
@@ -121,7 +94,7 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * further information like stop colours to the current gradient.
 	 */
 
-	private class Gradient {
+	static class Gradient {
 
 		String				href		= null;
 
@@ -132,9 +105,16 @@ public class SVGParserRenderer extends DefaultHandler {
 		boolean				isRadial	= false;
 
 
-		Matrix				matrix;
+		// Values as for android.graphics.Matrix, see SVGTransform.
+		float[]				matrix;
+
 
+		// Added for a fill or stroke url() that came before the gradient element it refers to, and
+		// replaced by that element when it is parsed.
+		boolean				placeholder	= false;
 
+
+		// Created from the other fields when the image is prepared for rendering.
 		Shader				shader;
 
 
@@ -150,59 +130,110 @@ public class SVGParserRenderer extends DefaultHandler {
 		}
 
 
-		public void setCoordinates(final float x1, final float y1, final float x2, final float y2) {
-			this.x1 = x1;
-			this.y1 = y1;
-			this.x2 = x2;
-			this.y2 = y2;
-		}
-
-	}
-
-
-	/**
-	 * Class that stores the current positions in all of the list structures when parsing begins
-	 * for a given group element in the SVG file.
-	 * 
-	 * @author trev
-	 */
-	private class GroupJumpTo {
-		int	arcsListPosition;
-
-
-		// TODO: It would be much better I think if this object were to contain all code to
-		// perform the 'jump to'. So, it could have a method jumpTo, which could accept the
-		// group ID to jump to. Perhaps it could all be static and contain the jumpTo map within?
-		int	bytecodePosition;
-
-
-		int	idstringListPosition;
-
-
-		int	matrixListPosition;
-
+		/**
+		 * Create the Shader for this gradient from its stop colours. The shader needs to have a
+		 * matrix even if no transform was specified in the attributes for the gradient. This is
+		 * because the gradient's Matrix, even if 'empty', is needed to concatenate the current
+		 * cumulative transform to during evaluation/drawing.
+		 * 
+		 * @return The Shader, or null if the gradient has no stop colours (yet).
+		 */
+		Shader createShader() {
+			final int size = stopColours.size();
+			if (size == 0 || isRadial && radius <= 0) {
+				return null;
+			}
 
-		int	pathListPosition;
+			// A single stop colour paints as a solid colour, but the Shader needs at least two.
+			final int[] ia = new int[Math.max(size, 2)];
+			for (int i = 0; i < size; i++) {
+				ia[i] = stopColours.get(i);
+			}
+			if (size == 1) {
+				ia[1] = ia[0];
+			}
 
+			final Shader shader;
+			if (isRadial) {
+				shader = new RadialGradient(
+						cx,
+						cy,
+						radius,
+						ia,
+						null,
+						Shader.TileMode.CLAMP
+						);
+			}
+			else { // linear
+				shader = new LinearGradient(
+						x1,
+						y1,
+						x2,
+						y2,
+						ia,
+						null,
+						Shader.TileMode.CLAMP
+						);
+			}
 
-		int	styleListPosition;
+			final Matrix localMatrix = new Matrix();
+			if (matrix != null) {
+				localMatrix.setValues(matrix);
+			}
+			shader.setLocalMatrix(localMatrix);
+			return shader;
+		}
 
 
-		int	textstringListPosition;
+		/**
+		 * Gradients are equal if they would create equal Shaders, so that a Shader can be shared by
+		 * all of them.
+		 */
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Gradient)) {
+				return false;
+			}
+			final Gradient g = (Gradient) o;
+			return isRadial == g.isRadial
+					&& Float.floatToIntBits(x1) == Float.floatToIntBits(g.x1)
+					&& Float.floatToIntBits(y1) == Float.floatToIntBits(g.y1)
+					&& Float.floatToIntBits(x2) == Float.floatToIntBits(g.x2)
+					&& Float.floatToIntBits(y2) == Float.floatToIntBits(g.y2)
+					&& Float.floatToIntBits(cx) == Float.floatToIntBits(g.cx)
+					&& Float.floatToIntBits(cy) == Float.floatToIntBits(g.cy)
+					&& Float.floatToIntBits(radius) == Float.floatToIntBits(g.radius)
+					&& Arrays.equals(matrix, g.matrix)
+					&& stopColours.equals(g.stopColours);
+		}
+
+
+		@Override
+		public int hashCode() {
+			int hash = isRadial ? 1 : 0;
+			hash = hash * 31 + Float.floatToIntBits(x1);
+			hash = hash * 31 + Float.floatToIntBits(y1);
+			hash = hash * 31 + Float.floatToIntBits(x2);
+			hash = hash * 31 + Float.floatToIntBits(y2);
+			hash = hash * 31 + Float.floatToIntBits(cx);
+			hash = hash * 31 + Float.floatToIntBits(cy);
+			hash = hash * 31 + Float.floatToIntBits(radius);
+			hash = hash * 31 + Arrays.hashCode(matrix);
+			hash = hash * 31 + stopColours.hashCode();
+			return hash;
+		}
 
 
-		public GroupJumpTo(final int bytecodePosition, final int pathListPosition,
-				final int matrixListPosition, final int styleListPosition,
-				final int textstringListPosition, final int idstringListPosition,
-				final int arcsListPosition) {
-			this.bytecodePosition = bytecodePosition;
-			this.pathListPosition = pathListPosition;
-			this.matrixListPosition = matrixListPosition;
-			this.styleListPosition = styleListPosition;
-			this.textstringListPosition = textstringListPosition;
-			this.idstringListPosition = idstringListPosition;
-			this.arcsListPosition = arcsListPosition;
+		public void setCoordinates(final float x1, final float y1, final float x2, final float y2) {
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
 		}
+
 	}
 
 
@@ -212,108 +243,42 @@ public class SVGParserRenderer extends DefaultHandler {
 
 
 	/**
-	 * Used for parsing the 'd' attribute in a 'path' element. Is subtly different to ValueTokenizer
-	 * in the following ways:
-	 * 1. Individual letters (a-zA-Z) are tokenized rather than complete strings.
-	 * 2. (And possibly more differences in future)
-	 * This class could in theory be merged with ValueTokenizer and an argument flag implemented to
-	 * control whether alpha characters are treated as individual tokens or string tokens, or could
-	 * remain a separate class but could extend ValueTokenizer.
+	 * Scratch objects used by the code evaluator. They are created with the first frame and reused
+	 * for every frame after it, so that drawing the image does not allocate anything.
 	 */
-
-	private class PathTokenizer {
-
-		private static final int	LTOK_END		= 5;
-
-
-		private static final int	LTOK_LETTER		= 3;
-
-
-		private static final int	LTOK_NUM_EXPO	= 9991;
-
-
-		private static final int	LTOK_NUMBER		= 1;
-
-
-		private static final int	LTOK_SPACE		= 4;
+	private static final class RenderContext {
+		final Matrix							animMatrix			= new Matrix();
 
 
-		private static final String	REGEXP_LETTER	= "([a-zA-Z_])";																		// Matches ONE character.
+		final Path								carryPath			= new Path();
 
 
-		// private static final String REGEXP_NUMBER = "([-+]?[0-9]*[\\.]?[0-9]+[eE]?[-]?[0-9]*)"; // [eE]?[-+]?[0-9]+
-		// private static final String REGEXP_NUM_EXPO = "([-+]?[0-9]*[\\.]?[0-9]+[eE][-]?[0-9]+)";
-		// private static final String REGEXP_NUMBER = "([-+]?[0-9]*[\\.]?[0-9]+)";
-		private static final String	REGEXP_NUMBER	= "([-+]?[0-9]*[\\.]?[0-9]+([eE][-+]?[0-9]+)?)";
+		// Identity, the transformation until the first matrix instruction.
+		final Matrix							identityMatrix		= new Matrix();
 
 
-		private static final String	REGEXP_SPACE	= "([\\s+,\\(\\)]+)";
-
-
-		private static final String	REGEXP_TOKENS	= /* REGEXP_NUM_EXPO + "|" + */REGEXP_NUMBER + "|" + REGEXP_LETTER + "|" + REGEXP_SPACE;
-
-
-		private int					currentTok;
-
-
-		private char				tokenChar;
-
-
-		private float				tokenF;
-
-
-		private String				tokenStr;
-
-
-		private Matcher				tokMatcher;
-
-
-		// TODO: Ensure that this Pattern only has to be compiled once.
-		private final Pattern		tokRegExp		= Pattern.compile(REGEXP_TOKENS);
-
-
-		int getToken(final String inputLine) {
+		// The local matrix of each Shader the evaluator has drawn with, as it was before the
+		// current transformation was concatenated to it for drawing. Drawing sets the shader's
+		// local matrix back to this object afterwards. It must not be a reused scratch Matrix, as
+		// before Lollipop Shader holds on to the Matrix it is given rather than copying it.
+		final IdentityHashMap<Shader, Matrix>	shaderBaseMatrices	= new IdentityHashMap<Shader, Matrix>();
 
-			int resultTok = LTOK_END;
-
-			if (inputLine != null) {
-				tokMatcher = tokRegExp.matcher(inputLine);
-			}
 
-			if (tokMatcher != null) {
+		final Matrix							shaderMatrix		= new Matrix();
 
-				do {
-					resultTok = LTOK_END;
-					if (tokMatcher.find()) {
 
-						if (tokMatcher.start(LTOK_NUMBER) != -1) {
-							resultTok = LTOK_NUMBER;
-							try {
-								tokenF = Float.parseFloat(tokMatcher.group(resultTok));
+		final Path								workingPath			= new Path();
 
-							}
-							catch (final NumberFormatException e_i) {
-								// Log.e(LOGTAG, "Number not parsed to float" );
-							}
-							break;
 
-						}
-						else if (tokMatcher.start(LTOK_LETTER) != -1) {
-							resultTok = LTOK_LETTER;
-							tokenStr = tokMatcher.group(resultTok);
-							tokenChar = tokenStr.charAt(0);
-						}
-						else if (tokMatcher.start(LTOK_SPACE) != -1) {
-							resultTok = LTOK_SPACE;
-						}
-					}
-				}
-				while (resultTok == LTOK_SPACE);
+		Matrix baseMatrix(final Shader shader) {
+			Matrix base = shaderBaseMatrices.get(shader);
+			if (null == base) {
+				base = new Matrix();
+				shader.getLocalMatrix(base);
+				shaderBaseMatrices.put(shader, base);
 			}
-			currentTok = resultTok;
-			return resultTok;
+			return base;
 		}
-
 	}
 
 
@@ -340,6 +305,13 @@ public class SVGParserRenderer extends DefaultHandler {
 		float		radius;
 
 
+		// The stop-color and stop-opacity of a <stop>, or null.
+		String		stopColour;
+
+
+		String		stopOpacity;
+
+
 		String		styleData;
 
 
@@ -380,22 +352,63 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * It could also contain the Matrix. Such Matrix and Paint objects can always be null
 	 * if not required, so there shouldn't be any memory penalty.
 	 * Style class could be a subclass of e.g. svgPath class.
+	 * While parsing, only the plain style properties are set. The Paint objects are created from
+	 * them by createPaints() when the image is prepared for rendering.
 	 */
 	public static class SvgStyle {
 
-		Paint	fillPaint;
+		static final int	ALIGN_CENTER	= 1;
+
+
+		static final int	ALIGN_LEFT		= 0;
+
+
+		static final int	ALIGN_RIGHT		= 2;
+
+
+		int					fillColour;
 
 
-		boolean	hasFill;
+		// Index into gradientList of the gradient used to fill, or -1.
+		int					fillGradient;
 
 
-		boolean	hasStroke;
+		Paint				fillPaint;
 
 
-		public float	masterOpacity, fillOpacity, strokeOpacity;
+		// Name given by the font-family attribute, or null for the default typeface.
+		String				fontFamily;
 
 
-		Paint			strokePaint;
+		boolean				hasFill;
+
+
+		boolean				hasStroke;
+
+
+		public float		masterOpacity, fillOpacity, strokeOpacity;
+
+
+		int					strokeColour;
+
+
+		// Index into gradientList of the gradient used to stroke, or -1.
+		int					strokeGradient;
+
+
+		Paint				strokePaint;
+
+
+		float				strokeWidth;
+
+
+		int					textAlign;
+
+
+		float				textScaleX;
+
+
+		float				textSize;
 
 
 		/**
@@ -407,27 +420,18 @@ public class SVGParserRenderer extends DefaultHandler {
 		 */
 		public SvgStyle() {
 
-			fillPaint = new Paint();
-			strokePaint = new Paint();
-			fillPaint.setStyle(Paint.Style.FILL);
-			strokePaint.setStyle(Paint.Style.STROKE);
-			fillPaint.setColor(0xff000000);
-			strokePaint.setColor(0xff000000);
+			fillColour = 0xff000000;
+			strokeColour = 0xff000000;
+			fillGradient = -1;
+			strokeGradient = -1;
 			masterOpacity = 1;
 			fillOpacity = 1;
 			strokeOpacity = 1;
-			fillPaint.setAntiAlias(true);
-			strokePaint.setAntiAlias(true);
-			fillPaint.setStrokeWidth(1f);
-			strokePaint.setStrokeWidth(1f);
-			fillPaint.setTextAlign(Paint.Align.LEFT);
-			strokePaint.setTextAlign(Paint.Align.LEFT);
-			fillPaint.setTextSize(0.02f);
-			strokePaint.setTextSize(0.02f);
-			fillPaint.setTextScaleX(1f);
-			strokePaint.setTextScaleX(1f);
-			fillPaint.setTypeface(Typeface.DEFAULT);
-			strokePaint.setTypeface(Typeface.DEFAULT);
+			strokeWidth = 1f;
+			textAlign = ALIGN_LEFT;
+			textSize = 0.02f;
+			textScaleX = 1f;
+			fontFamily = null;
 			hasFill = true;
 			hasStroke = false;
 		}
@@ -446,31 +450,150 @@ public class SVGParserRenderer extends DefaultHandler {
 		 * @param s
 		 */
 		public SvgStyle(final SvgStyle s) {
+			inherit(s);
+		}
+
+
+		/**
+		 * Set this style to what an element inherits from a parent with style s, see
+		 * SvgStyle(SvgStyle).
+		 */
+		void inherit(final SvgStyle s) {
+
+			this.fillColour = s.fillColour;
+			this.strokeColour = s.strokeColour;
+			this.fillGradient = s.fillGradient;
+			// The stroke has always been copied from the parent's fill Paint, and so inherits the
+			// fill's gradient rather than the stroke's.
+			this.strokeGradient = s.fillGradient;
+			this.masterOpacity = s.masterOpacity;
+			this.fillOpacity = s.fillOpacity;
+			this.strokeOpacity = s.strokeOpacity;
+			this.strokeWidth = 1f;
+			this.textAlign = s.textAlign;
+			this.textSize = s.textSize;
+			this.textScaleX = s.textScaleX;
+			this.fontFamily = null;
+			this.hasFill = s.hasFill;
+			this.hasStroke = s.hasStroke;
+
+		}
+
 
-			this.fillPaint = new Paint(s.fillPaint);
-			this.strokePaint = new Paint(s.fillPaint);
-			this.fillPaint.setStyle(Paint.Style.FILL);
-			this.strokePaint.setStyle(Paint.Style.STROKE);
-			this.fillPaint.setColor(s.fillPaint.getColor());
-			this.strokePaint.setColor(s.strokePaint.getColor());
+		/**
+		 * Set all of the style properties to those of s. The Paints are not copied.
+		 */
+		void set(final SvgStyle s) {
+			this.fillColour = s.fillColour;
+			this.strokeColour = s.strokeColour;
+			this.fillGradient = s.fillGradient;
+			this.strokeGradient = s.strokeGradient;
 			this.masterOpacity = s.masterOpacity;
 			this.fillOpacity = s.fillOpacity;
 			this.strokeOpacity = s.strokeOpacity;
-			this.fillPaint.setAntiAlias(true);
-			this.strokePaint.setAntiAlias(true);
-			this.fillPaint.setStrokeWidth(1f);
-			this.strokePaint.setStrokeWidth(1f);
-			this.fillPaint.setTextAlign(s.fillPaint.getTextAlign());
-			this.strokePaint.setTextAlign(s.strokePaint.getTextAlign());
-			this.fillPaint.setTextSize(s.fillPaint.getTextSize());
-			this.strokePaint.setTextSize(s.strokePaint.getTextSize());
-			this.fillPaint.setTextScaleX(s.fillPaint.getTextScaleX());
-			this.strokePaint.setTextScaleX(s.strokePaint.getTextScaleX());
-			this.fillPaint.setTypeface(Typeface.DEFAULT);
-			this.strokePaint.setTypeface(Typeface.DEFAULT);
+			this.strokeWidth = s.strokeWidth;
+			this.textAlign = s.textAlign;
+			this.textSize = s.textSize;
+			this.textScaleX = s.textScaleX;
+			this.fontFamily = s.fontFamily;
 			this.hasFill = s.hasFill;
 			this.hasStroke = s.hasStroke;
+		}
+
+
+		/**
+		 * Styles are equal if all of their style properties are, so that the parser can intern them.
+		 */
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof SvgStyle)) {
+				return false;
+			}
+			final SvgStyle s = (SvgStyle) o;
+			return fillColour == s.fillColour
+					&& strokeColour == s.strokeColour
+					&& fillGradient == s.fillGradient
+					&& strokeGradient == s.strokeGradient
+					&& Float.floatToIntBits(masterOpacity) == Float.floatToIntBits(s.masterOpacity)
+					&& Float.floatToIntBits(fillOpacity) == Float.floatToIntBits(s.fillOpacity)
+					&& Float.floatToIntBits(strokeOpacity) == Float.floatToIntBits(s.strokeOpacity)
+					&& Float.floatToIntBits(strokeWidth) == Float.floatToIntBits(s.strokeWidth)
+					&& textAlign == s.textAlign
+					&& Float.floatToIntBits(textSize) == Float.floatToIntBits(s.textSize)
+					&& Float.floatToIntBits(textScaleX) == Float.floatToIntBits(s.textScaleX)
+					&& (null == fontFamily ? null == s.fontFamily : fontFamily.equals(s.fontFamily))
+					&& hasFill == s.hasFill
+					&& hasStroke == s.hasStroke;
+		}
+
+
+		@Override
+		public int hashCode() {
+			int hash = fillColour;
+			hash = hash * 31 + strokeColour;
+			hash = hash * 31 + fillGradient;
+			hash = hash * 31 + strokeGradient;
+			hash = hash * 31 + Float.floatToIntBits(masterOpacity);
+			hash = hash * 31 + Float.floatToIntBits(fillOpacity);
+			hash = hash * 31 + Float.floatToIntBits(strokeOpacity);
+			hash = hash * 31 + Float.floatToIntBits(strokeWidth);
+			hash = hash * 31 + textAlign;
+			hash = hash * 31 + Float.floatToIntBits(textSize);
+			hash = hash * 31 + Float.floatToIntBits(textScaleX);
+			hash = hash * 31 + (null == fontFamily ? 0 : fontFamily.hashCode());
+			hash = hash * 31 + (hasFill ? 1 : 0);
+			hash = hash * 31 + (hasStroke ? 2 : 0);
+			return hash;
+		}
+
+
+		private static Paint.Align toPaintAlign(final int align) {
+			switch (align) {
+				case ALIGN_CENTER:
+					return Paint.Align.CENTER;
+				case ALIGN_RIGHT:
+					return Paint.Align.RIGHT;
+				default:
+					return Paint.Align.LEFT;
+			}
+		}
 
+
+		/**
+		 * Create fillPaint and strokePaint from the style properties.
+		 * 
+		 * @param typeface
+		 *            Typeface for fontFamily, or null for the default.
+		 * @param fillShader
+		 *            Shader of the fillGradient, or null.
+		 * @param strokeShader
+		 *            Shader of the strokeGradient, or null.
+		 */
+		void createPaints(final Typeface typeface, final Shader fillShader, final Shader strokeShader) {
+			fillPaint = new Paint();
+			strokePaint = new Paint();
+			fillPaint.setStyle(Paint.Style.FILL);
+			strokePaint.setStyle(Paint.Style.STROKE);
+			fillPaint.setColor(fillColour);
+			strokePaint.setColor(strokeColour);
+			fillPaint.setAntiAlias(true);
+			strokePaint.setAntiAlias(true);
+			fillPaint.setStrokeWidth(1f);
+			strokePaint.setStrokeWidth(strokeWidth);
+			final Paint.Align align = toPaintAlign(textAlign);
+			fillPaint.setTextAlign(align);
+			strokePaint.setTextAlign(align);
+			fillPaint.setTextSize(textSize);
+			strokePaint.setTextSize(textSize);
+			fillPaint.setTextScaleX(textScaleX);
+			strokePaint.setTextScaleX(textScaleX);
+			fillPaint.setTypeface(null == typeface ? Typeface.DEFAULT : typeface);
+			strokePaint.setTypeface(null == typeface ? Typeface.DEFAULT : typeface);
+			fillPaint.setShader(fillShader);
+			strokePaint.setShader(strokeShader);
 		}
 
 	}
@@ -608,47 +731,61 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
-	private static final String	ASSETS_FONTS_ROOT_DIRECTORY	= "fonts";
+	/** Prefix of the elements whose text is the document's private data, see setPrivateDataNamespace(). */
+	public static final String	DEFAULT_PRIVATE_DATA_NAMESPACE	= "msdroid:";
+
 
+	private static final int	INST_ARC					= 8;
 
-	static float				currentX;
 
+	private static final int	INST_BEGINGROUP				= 3;
 
-	static float				currentY;
 
+	/* Bytecode instruction set */
+	private static final int	INST_END					= 0;
 
-	private static final byte	INST_ARC					= 8;
 
+	private static final int	INST_ENDGROUP				= 4;
 
-	private static final byte	INST_BEGINGROUP				= 3;
 
+	// A path whose coordinates were transformed into document space when it was parsed, so it is
+	// painted as it is. See addPath().
+	private static final int	INST_FLATPATH				= 9;
 
-	/* Bytecode instruction set */
-	private static final byte	INST_END					= 0;
 
+	private static final int	INST_IDSTRING				= 7;
 
-	private static final byte	INST_ENDGROUP				= 4;
 
+	private static final int	INST_MATRIX					= 2;
 
-	private static final byte	INST_IDSTRING				= 7;
 
+	private static final int	INST_PATH					= 1;
 
-	private static final byte	INST_MATRIX					= 2;
 
+	private static final int	INST_STYLE					= 5;
 
-	private static final byte	INST_PATH					= 1;
 
+	private static final int	INST_TEXTSTRING				= 6;
 
-	private static final byte	INST_STYLE					= 5;
 
+	/**
+	 * The layers an image can be painted in, see paintImage(). The dynamic layer holds the
+	 * elements whose appearance the controller can change on every frame, those with an id that
+	 * starts with "_anim" and arcs, and everything painted between them. The background layer
+	 * holds the elements painted before the first of them, and the foreground layer those painted
+	 * after the last of them. Painting the three layers in turn gives the same result as painting
+	 * the whole image, so the two static layers can be cached as bitmaps.
+	 */
+	public static final int		LAYER_ALL					= 0;
 
-	private static final byte	INST_TEXTSTRING				= 6;
 
+	public static final int		LAYER_BACKGROUND			= 1;
 
-	static float				lastControlPointX			= 0;
 
+	public static final int		LAYER_DYNAMIC				= 2;
 
-	static float				lastControlPointY			= 0;
+
+	public static final int		LAYER_FOREGROUND			= 3;
 
 
 	public static ILogSVGTiming	LOG_TIMING					= null;
@@ -666,47 +803,17 @@ public class SVGParserRenderer extends DefaultHandler {
 	private static final String	SPECIAL_ID_PREFIX_META		= "_meta";
 
 
-	private static final String	STARTTAG_CIRCLE				= "circle";
-
-
-	private static final String	STARTTAG_DEFS				= "defs";
-
-
-	private static final String	STARTTAG_G					= "g";
-
-
-	private static final String	STARTTAG_LINE				= "line";
-
-
-	private static final String	STARTTAG_LINEARGRADIENT		= "linearGradient";
-
-
-	private static final String	STARTTAG_PATH				= "path";
-
-
-	private static final String	STARTTAG_POLYGON			= "polygon";
-
+	// Size of the buffer that documents are read through, unless the stream is buffered already.
+	private static final int	PARSE_BUFFER_SIZE			= 8192;
 
-	private static final String	STARTTAG_RADIALGRADIENT		= "radialGradient";
 
+	// Each thread's SAX reader, reused for every document the thread parses. Between parses its
+	// content handler and entity resolver are IDLE_HANDLER, so that it does not hold on to the
+	// last image.
+	private static final ThreadLocal<XMLReader>	saxReaders	= new ThreadLocal<XMLReader>();
 
-	private static final String	STARTTAG_RECT				= "rect";
 
-
-	private static final String	STARTTAG_STOP				= "stop";
-
-
-	/* XML tags */
-	private static final String	STARTTAG_SVG				= "svg";
-
-
-	private static final String	STARTTAG_TEXT				= "text";
-
-
-	private static final String	STARTTAG_TEXTPATH			= "textPath";
-
-
-	private static final String	STARTTAG_TSPAN				= "tspan";
+	private static final DefaultHandler			IDLE_HANDLER	= new DefaultHandler();
 
 
 	/**
@@ -725,7 +832,7 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * For convenience, this method may or may not also handle the stripping of quotation marks
 	 * from the value string - this is TBD.
 	 */
-	private static float parseCoOrdinate(String value) {
+	static float parseCoOrdinate(String value) {
 		float result = 0f;
 
 		// Quick and dirty way to determine if the value appears to have a units suffix.
@@ -748,28 +855,49 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
+	/**
+	 * Replace the alpha of an ARGB colour, as Paint.setAlpha() does.
+	 */
+	private static int withAlpha(final int colour, final int alpha) {
+		return colour & 0x00ffffff | (alpha & 0xff) << 24;
+	}
+
+
 	ArrayList<Arc>							arcsList				= new ArrayList<Arc>();
 
 
-	Iterator<Arc>							arcsListIterator;
+	// Holds the complete bytecode for an SVG image once parsed. Each instruction that refers to an
+	// object is followed by that object's index in its list, see instructionLength().
+	int[]									bytecodeArr;
 
 
-	private byte[]							bytecodeArr;													// Holds the complete bytecode for an SVG image once parsed.
+	// The bytecode of the document being parsed, see optimizeBytecode().
+	private int[]							bytecodeBuffer;
 
 
-	private ArrayList<Byte>					bytecodeList;													// Expandable list used for initial creation of bytecode from parsing.
+	private int								bytecodeLength;
 
 
 	private int								codePtr;
 
 
-	Paint									currentFillPaint		= new Paint();
+	// The evaluator's current paints and matrix are only created once drawing starts, so that
+	// parsing an image never touches the Android graphics library (see SVGCompiler).
+	Paint									currentFillPaint;
 
 
 	private Gradient						currentGradient			= new Gradient();
 
 
-	Paint									currentStrokePaint		= new Paint();
+	Paint									currentStrokePaint;
+
+
+	// Current point of the path being parsed. Like all parse state this belongs to the instance, so
+	// that different images can be parsed on different threads at the same time.
+	private float							currentX;
+
+
+	private float							currentY;
 
 
 	private final boolean					ga_debug;
@@ -778,13 +906,23 @@ public class SVGParserRenderer extends DefaultHandler {
 	ArrayList<Gradient>						gradientList			= new ArrayList<Gradient>();
 
 
+	// Index into gradientList of each gradient id, the first gradient with the id if there are
+	// several. Only used while parsing.
+	private final HashMap<String, Integer>	mGradientIndex			= new HashMap<String, Integer>();
+
+
 	ArrayList<String>						idstringList			= new ArrayList<String>();
 
 
-	Iterator<String>						idstringListIterator;
+	// Second control point of the previous curve, the reflection of which is the first control
+	// point of a following smooth curve.
+	private float							lastControlPointX;
 
 
-	private final Stack<Matrix>				matrixEvStack			= new Stack<Matrix>();					// Used for chaining transformations on nested nodes.
+	private float							lastControlPointY;
+
+
+	private final Stack<float[]>			matrixEvStack			= new Stack<float[]>();					// Used for chaining transformations on nested nodes.
 
 
 	private final boolean[]					matrixExistsAtDepth		= new boolean[20];
@@ -812,88 +950,155 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * }
 	 */
 
+	// Values of the matrices created by the parser, see SVGTransform. matrixList is created from these.
+	ArrayList<float[]>						matrixDataList			= new ArrayList<float[]>();
+
+
 	// Lists and stacks for executable code
 	ArrayList<Matrix>						matrixList				= new ArrayList<Matrix>();
 
 
-	// Used by code evaluator:
-	Iterator<Matrix>						matrixListIterator;
+	float[]									matrixValues			= new float[9];
 
 
-	float[]									matrixValues			= new float[9];
+	// The TAG_ code (see SVGNames) of the element whose content is being parsed.
+	private int								mCurrentTag;
 
 
-	private Context							mContext;
+	// Bytecode range of the dynamic layer, [mDynamicStart, mDynamicEnd), or -1 if the image has
+	// no dynamic elements. See LAYER_DYNAMIC.
+	private int								mDynamicEnd				= -1;
 
 
-	private String							mCurrentElement;
+	// Whether an id instruction has been added since the last path or text, so that the evaluator
+	// will call the controller for the next one.
+	private boolean							mCallbackPending;
 
 
-	private String							mPrivateDataCurrentKey;
+	// Whether an id or arc instruction has been added since the last path or text, which the
+	// evaluator will make controller callbacks for.
+	private boolean							mDynamicPending;
 
 
-	private final HashMap<String, String>	mPrivateDataMap;
+	private int								mDynamicStart			= -1;
 
 
-	private String							mPrivateDataNamespace	= "msdroid:";
+	// Parse results of repeated attribute values. See setInternTable().
+	private SVGInternTable					mInternTable			= new SVGInternTable();
 
 
-	private Properties						mProperties;
+	private boolean							mInternTableShared		= false;
 
 
-	private float							mRootSvgHeight			= 100;
+	// Whether parseDocument() runs optimizeBytecode(). See setOptimizeBytecode().
+	private boolean							mOptimizeBytecode		= true;
 
 
-	private float							mRootSvgWidth			= 100;
+	private String							mPrivateDataCurrentKey;
 
 
-	// private Typeface ttfFont1;
-	private final Stack<SvgStyle>			mStyleParseStack		= new Stack<SvgStyle>();
+	final HashMap<String, String>			mPrivateDataMap;
 
 
-	ArrayList<Paint>						paintStack				= new ArrayList<Paint>();
+	private String							mPrivateDataNamespace	= DEFAULT_PRIVATE_DATA_NAMESPACE;
 
 
-	ArrayList<Path>							pathList				= new ArrayList<Path>();
+	// Geometry of every path, in the same order as the INST_PATH instructions. paths are created from this.
+	final SVGPathData						mPathData				= new SVGPathData();
 
 
-	Iterator<Path>							pathListIterator;
+	private final SVGPathScanner			mPathScanner			= new SVGPathScanner();
 
 
-	ArrayList<SvgStyle>						styleList				= new ArrayList<SvgStyle>();
+	private Properties						mProperties;
 
 
-	Iterator<SvgStyle>						styleListIterator;
+	// Whether documents are read with SVGPullParser rather than a SAXParser. See setPullParser().
+	private boolean							mPullParser				= false;
 
 
-	HashMap<String, GroupJumpTo>			subtreeJumpMap			= new HashMap<String, GroupJumpTo>();
+	private RenderContext					mRenderContext;
 
 
-	// Data structures used during parsing
-	private int								tagDepth;
+	float									mRootSvgHeight			= 100;
 
 
-	ArrayList<Textstring>					textstringList			= new ArrayList<Textstring>();
+	float									mRootSvgWidth			= 100;
 
 
-	Iterator<Textstring>					textstringListIterator;
+	// private Typeface ttfFont1;
+	// Every distinct style of the document being parsed. Styles that are in it are never modified.
+	private final HashMap<SvgStyle, SvgStyle>	mStyleInternMap		= new HashMap<SvgStyle, SvgStyle>();
 
 
-	Matrix									workingMatrix			= new Matrix();
+	private final Stack<SvgStyle>			mStyleParseStack		= new Stack<SvgStyle>();
 
 
-	public SVGParserRenderer() {
-		mPrivateDataMap = new HashMap<String, String>();
-		ga_debug = false;
-	}
+	// The style of the element being started, until its attributes have been parsed and it is
+	// interned. Reused for every element.
+	private final SvgStyle					mStyleScratch			= new SvgStyle();
 
 
-	public SVGParserRenderer(final Context context, final File sourceFile) throws FileNotFoundException {
-		mPrivateDataMap = new HashMap<String, String>();
-		ga_debug = isDebug(context);
+	// The number of elements open in the subtree being parsed, 0 when outside of the subtrees.
+	private int								mSubtreeDepth;
 
-		parseImageFile(context, sourceFile);
-	}
+
+	// Ids of the groups to parse, or null to parse the whole document. See setSubtrees().
+	private HashSet<String>					mSubtreeIds				= null;
+
+
+	ArrayList<Paint>						paintStack				= new ArrayList<Paint>();
+
+
+	// The Path of each path in mPathData, or null until it is first painted. See getPath().
+	Path[]									paths					= new Path[0];
+
+
+	ArrayList<SvgStyle>						styleList				= new ArrayList<SvgStyle>();
+
+
+	// Bytecode position of each group with an id, where painting the group as a subtree starts.
+	HashMap<String, Integer>				subtreeJumpMap			= new HashMap<String, Integer>();
+
+
+	// Data structures used during parsing
+	private int								tagDepth;
+
+
+	ArrayList<Textstring>					textstringList			= new ArrayList<Textstring>();
+
+
+	Matrix									workingMatrix;
+
+
+	public SVGParserRenderer() {
+		mPrivateDataMap = new HashMap<String, String>();
+		ga_debug = false;
+	}
+
+
+	/**
+	 * Create the image from a compiled document, as written by writeCompiled(). No XML or path
+	 * data is parsed.
+	 * 
+	 * @throws IOException
+	 *             If the buffer does not contain a compiled document of the current version.
+	 */
+	public SVGParserRenderer(final Context context, final ByteBuffer compiledDocument) throws IOException {
+		mPrivateDataMap = new HashMap<String, String>();
+		ga_debug = isDebug(context);
+
+		SVGCompiledFormat.read(this, compiledDocument);
+		createRenderObjects(context);
+	}
+
+
+	public SVGParserRenderer(final Context context, final File sourceFile) throws FileNotFoundException {
+		mPrivateDataMap = new HashMap<String, String>();
+		ga_debug = isDebug(context);
+
+		parseImageFile(context, sourceFile);
+	}
 
 
 	public SVGParserRenderer(final Context context, final InputStream sourceStream) {
@@ -912,6 +1117,106 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
+	/**
+	 * Load a compiled document file, as written by writeCompiled(). The file is memory mapped
+	 * rather than read into the heap.
+	 * 
+	 * @throws IOException
+	 *             If the file cannot be read or does not contain a compiled document of the current
+	 *             version.
+	 */
+	public static SVGParserRenderer loadCompiled(final Context context, final File compiledFile) throws IOException {
+		final long start_time = System.currentTimeMillis();
+
+		final SVGParserRenderer image;
+		final FileInputStream inStream = new FileInputStream(compiledFile);
+		try {
+			final FileChannel channel = inStream.getChannel();
+			image = new SVGParserRenderer(context, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally {
+			inStream.close();
+		}
+
+		final long end_time = System.currentTimeMillis();
+
+		if (null != LOG_TIMING) {
+			LOG_TIMING.logSvgTiming(compiledFile.getPath(), end_time - start_time);
+		}
+		return image;
+	}
+
+
+	/**
+	 * Load a compiled document packaged as an asset, such as those made by the build time compiler
+	 * (see SVGCompiler). An asset stored uncompressed in the APK is memory mapped, otherwise it is
+	 * read into the heap.
+	 *
+	 * @throws IOException
+	 *             If there is no such asset, or it does not contain a compiled document of the current
+	 *             version.
+	 */
+	public static SVGParserRenderer loadCompiledAsset(final Context context, final String assetName) throws IOException {
+		final long start_time = System.currentTimeMillis();
+
+		final AssetManager assets = context.getAssets();
+		ByteBuffer document;
+		try {
+			final AssetFileDescriptor fd = assets.openFd(assetName);
+			try {
+				final FileInputStream inStream = fd.createInputStream();
+				try {
+					// The mapping stays valid once the channel is closed.
+					document = inStream.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+				}
+				finally {
+					inStream.close();
+				}
+			}
+			finally {
+				fd.close();
+			}
+		}
+		catch (final FileNotFoundException e) {
+			// openFd() fails this way for compressed assets too, so try reading it before giving up.
+			final InputStream inStream = assets.open(assetName);
+			try {
+				document = ByteBuffer.wrap(readFully(inStream));
+			}
+			finally {
+				inStream.close();
+			}
+		}
+
+		final SVGParserRenderer image = new SVGParserRenderer(context, document);
+
+		final long end_time = System.currentTimeMillis();
+
+		if (null != LOG_TIMING) {
+			LOG_TIMING.logSvgTiming(assetName, end_time - start_time);
+		}
+		return image;
+	}
+
+
+	private static byte[] readFully(final InputStream inStream) throws IOException {
+		byte[] buffer = new byte[Math.max(inStream.available(), 4096)];
+		int length = 0;
+		int count;
+		while ((count = inStream.read(buffer, length, buffer.length - length)) != -1) {
+			length += count;
+			if (length == buffer.length) {
+				final byte[] grown = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer = grown;
+			}
+		}
+		final byte[] result = new byte[length];
+		System.arraycopy(buffer, 0, result, 0, length);
+		return result;
+	}
+
+
 	public void ___setAnimHandler(final ITpsvgController animHandler) {
 		// this.animHandler = animHandler;
 		// parseImageFile(context,resourceID);
@@ -921,23 +1226,22 @@ public class SVGParserRenderer extends DefaultHandler {
 	private void addArc(final Arc arc) {
 		// addIdIfContainsSpecialPrefix();// At the moment, Arc itself contains the ID
 		arcsList.add(arc);
-		addInstruction(INST_ARC);
+		addInstruction(INST_ARC, arcsList.size() - 1);
+		mDynamicPending = true;
 	}
 
 
 	private void addBeginGroup(final String id) {
+		// A subtree is painted from its id instruction, if any, so that its first element gets the
+		// callback it gets when the whole image is painted.
+		final int position = bytecodeLength;
 		addIdIfContainsSpecialPrefix();
 		// All groups need to have Matrix added before them, even if empty Matrix
 		addTransform();
 		addInstruction(INST_BEGINGROUP);
 		// Did the attributes for this <g> element include an id= attribute?
 		if (id != "") {
-
-			subtreeJumpMap.put(id, new GroupJumpTo(bytecodeList.size() - 2, pathList.size(),
-					matrixList.size() - 1, styleList.size(),
-					textstringList.size(), idstringList.size(),
-					arcsList.size()));
-
+			subtreeJumpMap.put(id, position);
 		}
 	}
 
@@ -950,17 +1254,30 @@ public class SVGParserRenderer extends DefaultHandler {
 	private void addIdIfContainsSpecialPrefix() {
 		if (mProperties.id.toLowerCase().startsWith(SPECIAL_ID_PREFIX_ANIM)) {
 			idstringList.add(mProperties.id);
-			addInstruction(INST_IDSTRING);
+			addInstruction(INST_IDSTRING, idstringList.size() - 1);
+			mCallbackPending = true;
+			mDynamicPending = true;
 		}
 	}
 
 
-	private void addInstruction(final byte inst) {
-		bytecodeList.add(inst);
+	private void addInstruction(final int inst) {
+		if (bytecodeLength == bytecodeBuffer.length) {
+			final int[] buffer = new int[bytecodeLength * 2];
+			System.arraycopy(bytecodeBuffer, 0, buffer, 0, bytecodeLength);
+			bytecodeBuffer = buffer;
+		}
+		bytecodeBuffer[bytecodeLength++] = inst;
+	}
+
+
+	private void addInstruction(final int inst, final int operand) {
+		addInstruction(inst);
+		addInstruction(operand);
 	}
 
 
-	private void addPath(final Path p) {
+	private void addPath() {
 		// This may well have a lot more arguments for stuff that's specific to the path
 		// i.e. contained within the <path.../> element but can't be expressed in the Path
 		// object, e.g. its ID.
@@ -984,41 +1301,59 @@ public class SVGParserRenderer extends DefaultHandler {
 		// (Or maintain a matrix stack in the evaluator.)
 		// Note: The parser uses a Matrix stack. The evaluator uses a Matrix list.
 
-		// if(this.mProperties.transformData!=null){
-		addTransform();
-		// }
-
-		this.pathList.add(p);
-		addInstruction(INST_PATH);
+		// The geometry of the path has already been recorded in mPathData. Unless the controller
+		// can change how the path is painted, it is transformed into document space now rather
+		// than on every frame. Its matrix is then only needed to scale its stroke width and
+		// gradient.
+		pushTransform();
+		final float[] matrix = matrixEvStack.peek();
+		if (!mDynamicPending && mPathData.transformLastPath(matrix)) {
+			final SvgStyle style = mProperties.svgStyle;
+			if (null == style || style.hasStroke || style.hasFill && style.fillGradient != -1) {
+				this.matrixDataList.add(matrix);
+				addInstruction(INST_MATRIX, matrixDataList.size() - 1);
+			}
+			addInstruction(INST_FLATPATH, mPathData.pathCount - 1);
+		}
+		else {
+			// if(this.mProperties.transformData!=null){
+			this.matrixDataList.add(matrix);
+			addInstruction(INST_MATRIX, matrixDataList.size() - 1);
+			// }
+			addInstruction(INST_PATH, mPathData.pathCount - 1);
+		}
+		mCallbackPending = false;
+		mDynamicPending = false;
 	}
 
 
 	private void addStyle() {
-		this.styleList.add(mProperties.svgStyle);
+		SvgStyle style = mProperties.svgStyle;
+		if (mCallbackPending || mProperties.id.toLowerCase().startsWith(SPECIAL_ID_PREFIX_ANIM)) {
+			// The controller is handed this element's Paints to animate, whether the id is its own
+			// or that of a group around it that no other element has taken, so it must not share
+			// them with other elements.
+			style = new SvgStyle();
+			style.set(mProperties.svgStyle);
+		}
+		this.styleList.add(style);
 		// styleList.add(styleParseStack.peek());
-		addInstruction(INST_STYLE);
+		addInstruction(INST_STYLE, styleList.size() - 1);
 	}
 
 
 	private void addText() {
 		addIdIfContainsSpecialPrefix();
-		addInstruction(INST_TEXTSTRING);
+		addInstruction(INST_TEXTSTRING, textstringList.size() - 1);
+		mCallbackPending = false;
+		mDynamicPending = false;
 	}
 
 
 	private void addTransform() {
-		// this.matrixList.add(transform());
-		final Matrix cm = transform(); // matrixList.get(matrixList.size()-1);
-
-		// new:
-		if (!matrixEvStack.empty()) {
-			cm.postConcat(matrixEvStack.peek());
-		}
-		matrixEvStack.push(cm);
-
-		this.matrixList.add(matrixEvStack.peek());
-		matrixExistsAtDepth[tagDepth] = true;
-		addInstruction(INST_MATRIX);
+		pushTransform();
+		this.matrixDataList.add(matrixEvStack.peek());
+		addInstruction(INST_MATRIX, matrixDataList.size() - 1);
 	}
 
 
@@ -1038,7 +1373,7 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * @param y
 	 */
 
-	public/* static */final void arcTo(final Path path, float rx, float ry, float theta, final boolean largeArcFlag, final boolean sweepFlag, final float x, final float y) {
+	final void arcTo(final SVGPathData path, float rx, float ry, float theta, final boolean largeArcFlag, final boolean sweepFlag, final float x, final float y) {
 		// Ensure radii are valid
 		if (rx == 0 || ry == 0) {
 			path.lineTo(x, y);
@@ -1140,15 +1475,13 @@ public class SVGParserRenderer extends DefaultHandler {
 		final float _width = rx * 2.0f;
 		final float _height = ry * 2.0f;
 
-		final RectF bounds = new RectF(_x, _y, _x + _width, _y + _height);
-
 		// if(animHandler!=null){
 		// animHandler.arcParams(mProperties.id, path, angleStart, angleExtent, bounds);
 		//
 		// }
 		// else{
 		// path.addArc(bounds, angleStart, angleExtent);
-		addArc(new Arc(bounds, angleStart, angleExtent, mProperties.id));
+		addArc(new Arc(_x, _y, _x + _width, _y + _height, angleStart, angleExtent, mProperties.id));
 		// }
 	}
 
@@ -1158,15 +1491,105 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
+	/**
+	 * Create the android.graphics objects used by the code evaluator from the plain data produced
+	 * by the parser, or read from a compiled document: a Matrix for every matrix, the gradient
+	 * Shaders, the arc bounds and the Paints of every style. Paths are not created here, see
+	 * getPath().
+	 */
+	private void createRenderObjects(final Context context) {
+		// Paths are created when they are first painted.
+		paths = new Path[mPathData.pathCount];
+
+		// The matrices are all different, see optimizeBytecode().
+		matrixList.clear();
+		matrixList.ensureCapacity(matrixDataList.size());
+		for (int i = 0; i < matrixDataList.size(); i++) {
+			final Matrix m = new Matrix();
+			m.setValues(matrixDataList.get(i));
+			matrixList.add(m);
+		}
+
+		// Gradients that differ only in their ids, such as the copies Inkscape makes of a gradient
+		// for each shape that uses it, share one Shader.
+		final HashMap<Gradient, Shader> shaders = new HashMap<Gradient, Shader>();
+		for (int i = 0; i < gradientList.size(); i++) {
+			final Gradient g = gradientList.get(i);
+			g.shader = shaders.get(g);
+			if (null == g.shader) {
+				g.shader = g.createShader();
+				shaders.put(g, g.shader);
+			}
+		}
+
+		for (int i = 0; i < arcsList.size(); i++) {
+			final Arc arc = arcsList.get(i);
+			arc.bounds = new RectF(arc.left, arc.top, arc.right, arc.bottom);
+		}
+
+		for (int i = 0; i < styleList.size(); i++) {
+			final SvgStyle style = styleList.get(i);
+			if (style.fillPaint == null) {
+				style.createPaints(
+						SVGTypefaceCache.get(context, style.fontFamily),
+						getGradientShader(style.fillGradient),
+						getGradientShader(style.strokeGradient));
+			}
+		}
+
+		findDynamicLayer();
+	}
+
+
+	/**
+	 * Find the bytecode range of the dynamic layer. A path or text instruction is dynamic if an id
+	 * or arc instruction came after the previous path or text instruction, as the evaluator makes
+	 * controller callbacks for it. The range starts after the last static path or text before the
+	 * first dynamic one, so that it includes the arc and id instructions that lead up to it.
+	 */
+	private void findDynamicLayer() {
+		mDynamicStart = -1;
+		mDynamicEnd = -1;
+		if (null == bytecodeArr) {
+			return;
+		}
+
+		// Position of the instruction after the last path or text.
+		int afterDraw = 0;
+		boolean dynamic = false;
+		for (int i = 0; bytecodeArr[i] != INST_END; i += instructionLength(bytecodeArr[i])) {
+			switch (bytecodeArr[i]) {
+				case INST_IDSTRING:
+				case INST_ARC:
+					dynamic = true;
+					break;
+
+				case INST_PATH:
+				case INST_FLATPATH:
+				case INST_TEXTSTRING:
+					if (dynamic) {
+						if (mDynamicStart < 0) {
+							mDynamicStart = afterDraw;
+						}
+						mDynamicEnd = i + instructionLength(bytecodeArr[i]);
+						dynamic = false;
+					}
+					afterDraw = i + instructionLength(bytecodeArr[i]);
+					break;
+			}
+		}
+	}
+
+
 	@Override
 	public void characters(final char[] ch, final int start, final int length) throws SAXException {
 		super.characters(ch, start, length);
 
-		if (mCurrentElement.equalsIgnoreCase(STARTTAG_TEXT)) {
+		if (mCurrentTag == SVGNames.TAG_TEXT) {
 			text_characters(ch, start, length);
 		}
 
-		else if (mCurrentElement.equalsIgnoreCase(STARTTAG_TSPAN)) {
+		else if (mCurrentTag == SVGNames.TAG_TSPAN) {
 			tspan_characters(ch, start, length);
 		}
 
@@ -1178,89 +1601,75 @@ public class SVGParserRenderer extends DefaultHandler {
 
 
 	private void circle() {
-		final Path p = new Path();
-		p.addCircle(mProperties.cx, mProperties.cy, mProperties.radius, Direction.CW);
+		final SVGPathData p = mPathData;
+		p.beginPath();
+		p.addCircle(mProperties.cx, mProperties.cy, mProperties.radius);
 		currentX = mProperties.cx;
 		currentY = mProperties.cy;
-		addPath(p);
+		addPath();
 	}
 
 
 	/**
-	 * Is called when all of the SVG XML file has been parsed. It performs cross-referencing and
-	 * copying of data due to xlink:hrefs. For example, LinearGradient and RadialGradient use
-	 * xlink:href a lot because gradients often reference stop colours from another gradient ID.
-	 * This task has to be performed after parsing and not during because it's possible to have
-	 * both backward and forward references.
-	 * Actually - this is now called when the 'defs' close tag is encountered. The gradients need
-	 * to be all fully set up before we start generating paths! This assumes for now that there's
-	 * only one defs block... which is bound to be a wrong thing to assume. Also, it's probably
-	 * wrong to assume that a defs block can't occur again in the document. Something to be careful
-	 * of and improve later.
-	 * We might need to implement pointers for things like gradientList to keep tabs on which ones
-	 * were newly added by a given defs block.
-	 * Also, xrefs between gradients could be at a greater depth than 1, which means that we'd need
-	 * to do multiple passes over the list.
+	 * Is called when all of the SVG XML file has been parsed. A gradient with no stop colours of its
+	 * own takes those of the gradient its xlink:href refers to, which may come later in the document
+	 * and may itself refer to another. Each chain of references is followed to its end once and
+	 * resolved from there back, so every gradient is visited a fixed number of times whatever the
+	 * depth. Gradients in a reference cycle are left without stop colours.
 	 */
-	private void completeHrefs() {
-		// Process the gradients
-		final Iterator<Gradient> gi = gradientList.iterator();
-		Gradient g;
-		int idx;
-		while (gi.hasNext()) {
-			g = gi.next();
-			if (g.href != null) {
-				idx = this.getGradientByIdString(g.href.substring(1));
-				if (idx != -1) {
-					final Gradient xlinkGrad = this.gradientList.get(idx);
-					g.stopColours = xlinkGrad.stopColours;
-
-				}
-
-				// TODO: Can't we just insert an object reference to the same shader?
-
-				final int[] ia = new int[g.stopColours.size()];
-
-				for (int i = 0; i < ia.length; i++) {
-					ia[i] = g.stopColours.get(i);
-				}
-
-				if (g.isRadial) {
-					g.shader = new RadialGradient(
-							g.cx,
-							g.cy,
-							g.radius,
-							ia,
-							null,
-							Shader.TileMode.CLAMP
-							);
-				}
-				else { // linear
-					g.shader = new LinearGradient(
-							g.x1,
-							g.y1,
-							g.x2,
-							g.y2,
-							ia,
-							null,
-							Shader.TileMode.CLAMP
-							);
-				}
+	private void resolveGradientHrefs() {
+		final int count = gradientList.size();
+		// 0 not yet resolved, 1 on the chain being followed, 2 resolved.
+		final byte[] state = new byte[count];
+		final int[] chain = new int[count];
+		for (int i = 0; i < count; i++) {
+			int length = 0;
+			int idx = i;
+			while (idx != -1 && state[idx] == 0) {
+				final Gradient g = gradientList.get(idx);
+				state[idx] = 1;
+				chain[length++] = idx;
+				idx = g.stopColours.isEmpty() && null != g.href ? getGradientIndex(g.href.substring(g.href.startsWith("#") ? 1 : 0)) : -1;
+			}
 
-				// The shader needs to have a matrix even if no transform was specified in the attributes
-				// for the gradient. This is because the gradient's Matrix, even if 'empty', is needed
-				// to concatenate the current cumulative transform to during evaluation/drawing.
-				if (g.matrix != null) {
-					g.shader.setLocalMatrix(g.matrix);
+			ArrayList<Integer> stops = idx != -1 && state[idx] == 2 ? gradientList.get(idx).stopColours : null;
+			while (length > 0) {
+				final int c = chain[--length];
+				final Gradient g = gradientList.get(c);
+				if (null == stops || !g.stopColours.isEmpty()) {
+					stops = g.stopColours;
 				}
 				else {
-					g.shader.setLocalMatrix(new Matrix());
+					// Shared, not copied.
+					g.stopColours = stops;
 				}
-
+				state[c] = 2;
 			}
-
 		}
+	}
+
 
+	/**
+	 * Add a parsed gradient to the gradientList, in place of the placeholder for its id if it has
+	 * already been referenced.
+	 */
+	private void addGradient(final Gradient g) {
+		if (null == g.id || g.id.length() == 0) {
+			gradientList.add(g);
+			return;
+		}
+		final Integer idx = mGradientIndex.get(g.id);
+		if (null == idx) {
+			mGradientIndex.put(g.id, gradientList.size());
+			gradientList.add(g);
+		}
+		else if (gradientList.get(idx).placeholder) {
+			gradientList.set(idx, g);
+		}
+		else {
+			// A duplicate id. References go to the first gradient, as before.
+			gradientList.add(g);
+		}
 	}
 
 
@@ -1270,20 +1679,27 @@ public class SVGParserRenderer extends DefaultHandler {
 		super.endElement(uri, localName, name);
 
 		mPrivateDataCurrentKey = "";
-		mCurrentElement = "";
+		mCurrentTag = SVGNames.TAG_UNKNOWN;
 
-		if (localName.equalsIgnoreCase(STARTTAG_G)) {
-			addEndGroup();
+		final boolean inSubtree = null == mSubtreeIds || mSubtreeDepth > 0;
+		if (mSubtreeDepth > 0) {
+			mSubtreeDepth--;
 		}
 
-		else if (localName.equalsIgnoreCase(STARTTAG_LINEARGRADIENT)) {
-			finaliseLinearGradient();
-		}
-		else if (localName.equalsIgnoreCase(STARTTAG_RADIALGRADIENT)) {
-			finaliseRadialGradient();
-		}
-		else if (localName.equalsIgnoreCase(STARTTAG_DEFS)) {
-			completeHrefs();
+		switch (SVGNames.tag(localName)) {
+			case SVGNames.TAG_G:
+				if (inSubtree) {
+					addEndGroup();
+				}
+				break;
+
+			case SVGNames.TAG_LINEARGRADIENT:
+				finaliseLinearGradient();
+				break;
+
+			case SVGNames.TAG_RADIALGRADIENT:
+				finaliseRadialGradient();
+				break;
 		}
 
 		tagDepth--;
@@ -1297,83 +1713,36 @@ public class SVGParserRenderer extends DefaultHandler {
 
 	private void finaliseLinearGradient() {
 
-		// Only apply a shader now if this gradient element itself provided stop colours in its
-		// attributes. If it didn't, then hopefully it references another gradient's colours via a href
-		// attribute, in which case the cross-referencing will be done later.
-
-		if (currentGradient.stopColours.size() > 0) {
-			final int[] ia = new int[currentGradient.stopColours.size()];
-
-			for (int i = 0; i < ia.length; i++) {
-				ia[i] = currentGradient.stopColours.get(i);
-			}
-
-			currentGradient.shader = new LinearGradient(
-					currentGradient.x1,
-					currentGradient.y1,
-					currentGradient.x2,
-					currentGradient.y2,
-					ia,
-					null,
-					Shader.TileMode.CLAMP
-					);
-
-			// The shader needs to have a matrix even if no transform was specified in the attributes
-			// for the gradient. This is because the gradient's Matrix, even if 'empty', is needed
-			// to concatenate the current cumulative transform to during evaluation/drawing.
-			if (currentGradient.matrix != null) {
-				currentGradient.shader.setLocalMatrix(currentGradient.matrix);
-			}
-			else {
-				currentGradient.shader.setLocalMatrix(new Matrix());
-			}
-
-		}
+		// The shader is created later from the stop colours, when the image is prepared for
+		// rendering. If this gradient element didn't provide stop colours itself, then hopefully it
+		// references another gradient's colours via a href attribute, in which case the
+		// cross-referencing will be done by resolveGradientHrefs().
 
 		currentGradient.isRadial = false;
-		gradientList.add(currentGradient);
+		addGradient(currentGradient);
 		currentGradient = new Gradient();
 
 	}
 
 
+	/**
+	 * Let go of the Paths created so far, keeping only the compact geometry they were created
+	 * from, for example from onTrimMemory() while the image is not shown. They are created again
+	 * when they are next painted. Call it from the thread that paints the image.
+	 */
+	public void evictPaths() {
+		Arrays.fill(paths, null);
+	}
+
+
 	// The valueTokenizer is used for:
 	// - parsing 'transform' attribute string
 	// - parsing rgb(r,g,b) colour string
 
 	private void finaliseRadialGradient() {
 
-		if (currentGradient.stopColours.size() > 0) {
-
-			final int[] ia = new int[currentGradient.stopColours.size()];
-
-			for (int i = 0; i < ia.length; i++) {
-				ia[i] = currentGradient.stopColours.get(i);
-			}
-
-			currentGradient.shader = new RadialGradient(
-					currentGradient.cx,
-					currentGradient.cy,
-					currentGradient.radius,
-					ia,
-					null,
-					Shader.TileMode.CLAMP
-					);
-
-			// The shader needs to have a matrix even if no transform was specified in the attributes
-			// for the gradient. This is because the gradient's Matrix, even if 'empty', is needed
-			// to concatenate the current cumulative transform to during evaluation/drawing.
-			if (currentGradient.matrix != null) {
-				currentGradient.shader.setLocalMatrix(currentGradient.matrix);
-			}
-			else {
-				currentGradient.shader.setLocalMatrix(new Matrix());
-			}
-
-		}
-
 		currentGradient.isRadial = true;
-		gradientList.add(currentGradient);
+		addGradient(currentGradient);
 		currentGradient = new Gradient();
 
 	}
@@ -1404,53 +1773,69 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
-	/*
-	 * Search the gradientList for the Gradient with specified string ID.
-	 * Index into the gradientList is returned. If not found, -1 is returned.
+	/**
+	 * @return The intern table used by the last parse, for its hit counters.
 	 */
-	private int getGradientByIdString(final String searchId) {
-		for (int idx = 0; idx < gradientList.size(); idx++) {
-			if (gradientList.get(idx).id.equals(searchId)) {
-				return idx;
-			}
-		}
-		return -1;
+	public SVGInternTable getInternTable() {
+		return mInternTable;
 	}
 
 
-	public String getPrivateDataValue(final String key) {
-		return mPrivateDataMap.get(key);
+	/**
+	 * @return Index into the gradientList of the gradient with an id, or -1 if there is none (yet).
+	 */
+	private int getGradientIndex(final String id) {
+		final Integer idx = mGradientIndex.get(id);
+		return null == idx ? -1 : idx;
 	}
 
 
-	// -------------------------------------------------------------------------------------
-	// Code-sequence build functions
-
 	/**
-	 * Obtain a Tyepface from the assets fonts directory for the given name.
-	 * The fonts in the assets directory need to be lowercase. The actual font
-	 * looked for will be fontFamilyName appended with .ttf.
-	 * If the font name contains space characters, the corresponding characters
-	 * in the filename of the assets font should be underscores.
-	 * 
-	 * @param fontFamilyName
-	 *            Font name. Will be made lowercase.
-	 * @return A Typeface, or null if not found in assets.
+	 * @return Index into the gradientList of the gradient that a fill or stroke url() refers to. A
+	 *         gradient that has not been parsed yet gets a placeholder, which it replaces when it
+	 *         is.
 	 */
-	private Typeface getTypeface(String fontFamilyName) {
-		fontFamilyName = fontFamilyName.replace(' ', '_');
-		try {
-			return Typeface.createFromAsset(mContext.getAssets(),
-					ASSETS_FONTS_ROOT_DIRECTORY + "/" +
-							fontFamilyName.toLowerCase() + ".ttf");
+	private int referenceGradient(final String id) {
+		int idx = getGradientIndex(id);
+		if (idx == -1) {
+			final Gradient g = new Gradient();
+			g.id = id;
+			g.placeholder = true;
+			idx = gradientList.size();
+			mGradientIndex.put(id, idx);
+			gradientList.add(g);
 		}
-		catch (final Exception e) {
-			return null;
+		return idx;
+	}
+
+
+	/**
+	 * @return The Path of a path, created from mPathData the first time it is needed, so that the
+	 *         paths of groups that are never painted are never created. See evictPaths().
+	 */
+	private Path getPath(final int index) {
+		Path p = paths[index];
+		if (null == p) {
+			p = mPathData.toPath(index);
+			paths[index] = p;
 		}
+		return p;
+	}
+
+
+	private Shader getGradientShader(final int gradientIdx) {
+		return gradientIdx < 0 || gradientIdx >= gradientList.size() ? null : gradientList.get(gradientIdx).shader;
+	}
 
+
+	public String getPrivateDataValue(final String key) {
+		return mPrivateDataMap.get(key);
 	}
 
 
+	// -------------------------------------------------------------------------------------
+	// Code-sequence build functions
+
 	private void gradientStop() {
 		gradientStyle(); // This will add colour to stopColours
 
@@ -1458,13 +1843,11 @@ public class SVGParserRenderer extends DefaultHandler {
 
 
 	private void gradientStyle() {
-		final Map<String, String> map = new HashMap<String, String>();
-		parseAttributeValuePairsIntoMap(map);
 		String value;
 		int stopColour = 0;
 		boolean haveStopColour = false;
 
-		if (null != (value = map.get("stop-opacity"))) {
+		if (null != (value = mProperties.stopOpacity)) {
 			final float opacity = parseAttrValueFloat(value);
 			stopColour |= (int) (opacity * 255) << 24;
 			haveStopColour = true;
@@ -1475,7 +1858,7 @@ public class SVGParserRenderer extends DefaultHandler {
 			stopColour = 0xff000000;
 		}
 
-		if (null != (value = map.get("stop-color"))) {
+		if (null != (value = mProperties.stopColour)) {
 			stopColour |= parseColour(value);
 			haveStopColour = true;
 		}
@@ -1487,6 +1870,20 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
+	/**
+	 * @return The interned instance of a style, which must not be modified.
+	 */
+	private SvgStyle internStyle(final SvgStyle style) {
+		SvgStyle interned = mStyleInternMap.get(style);
+		if (null == interned) {
+			interned = new SvgStyle();
+			interned.set(style);
+			mStyleInternMap.put(interned, interned);
+		}
+		return interned;
+	}
+
+
 	private boolean isDebug(final Context context) {
 		final Resources resources = context.getResources();
 		final int ga_debugId = resources.getIdentifier("ga_debug", "bool", context.getPackageName());
@@ -1495,12 +1892,13 @@ public class SVGParserRenderer extends DefaultHandler {
 
 
 	private void line() {
-		final Path p = new Path();
+		final SVGPathData p = mPathData;
+		p.beginPath();
 		p.moveTo(mProperties.x1, mProperties.y1);
 		p.lineTo(mProperties.x2, mProperties.y2);
 		currentX = mProperties.x2;
 		currentY = mProperties.y2;
-		addPath(p);
+		addPath();
 	}
 
 
@@ -1537,7 +1935,7 @@ public class SVGParserRenderer extends DefaultHandler {
 			// The hrefs have to be dealt with in a second pass, because forward references are possible!
 
 			// It'll have the form #abcd where abcd is the ID
-			// int idx = this.getGradientByIdString(mProperties.xlink_href.substring(1));
+			// int idx = this.getGradientIndex(mProperties.xlink_href.substring(1));
 			// if(idx!=-1){
 			// Gradient xlinkGrad = this.gradientList.get(idx);
 			// currentGradient.stopColours = xlinkGrad.stopColours;
@@ -1563,11 +1961,228 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
+	/**
+	 * Make bytecodeArr from the bytecodeBuffer of a parse. The parser emits instructions with no
+	 * regard to the evaluator's state, so this pass leaves out:
+	 * - an INST_STYLE of the style that is already current;
+	 * - an INST_MATRIX of a matrix equal to the current one, or one replaced by the next
+	 * INST_MATRIX before anything is painted with it;
+	 * - the INST_BEGINGROUP and INST_ENDGROUP of a group that is not in the subtreeJumpMap, as
+	 * the evaluator only counts group depth to find the end of a subtree. An empty group leaves
+	 * nothing behind but its id instruction, if any.
+	 * It also batches paths: a run of INST_FLATPATH instructions that are filled with the same
+	 * style and not stroked, with nothing painted between them, becomes one path in mPathData and
+	 * so one drawPath(). A path only joins the batch if its bounds do not overlap those of any
+	 * path already in it. Overlapping paths could then be painted in a different order, and the
+	 * winding of one could cut a hole in the other.
+	 * The evaluator can start at any group in the subtreeJumpMap, at its id instruction if it has
+	 * one and otherwise at its matrix, so nothing is assumed about its state there and that matrix
+	 * is kept. The subtreeJumpMap positions are
+	 * moved to match the shorter code.
+	 * matrixDataList and styleList are left with one entry for each distinct matrix and style
+	 * that the code still refers to. Text, ids and arcs are all kept.
+	 */
+	private void optimizeBytecode() {
+		final int[] code = bytecodeBuffer;
+		final int count = bytecodeLength;
+		final boolean[] target = new boolean[count];
+		for (final Integer position : subtreeJumpMap.values()) {
+			target[position] = true;
+			if (code[position] == INST_IDSTRING) {
+				target[position + 2] = true;
+			}
+		}
+
+		// Find the instructions to keep.
+		final boolean[] keep = new boolean[count];
+		// Whether the markers of each open group are kept.
+		final boolean[] groupKept = new boolean[count];
+		int depth = 0;
+		// The evaluator's state, null where it is not known. It starts with the identity matrix.
+		float[] matrix = SVGTransform.identity();
+		SvgStyle style = null;
+		// Position of the last INST_MATRIX while nothing has been painted with it, or -1.
+		int unusedMatrix = -1;
+
+		// The batch of paths being built: the index of its last path, or -1 if there is none, the
+		// style and matrix it is painted with and the bounds of each of its paths.
+		int batchPath = -1;
+		SvgStyle batchStyle = null;
+		float[] batchMatrix = null;
+		float[] batchBounds = new float[64];
+		int batchBoundsLength = 0;
+		final float[] bounds = new float[4];
+		final boolean[] joined = new boolean[mPathData.pathCount];
+
+		for (int i = 0; i < count; i += instructionLength(code[i])) {
+			if (target[i]) {
+				matrix = null;
+				style = null;
+				batchPath = -1;
+			}
+			keep[i] = true;
+
+			switch (code[i]) {
+				case INST_MATRIX: {
+					final float[] m = matrixDataList.get(code[i + 1]);
+					if (!target[i] && null != matrix && Arrays.equals(m, matrix)) {
+						keep[i] = false;
+						break;
+					}
+					if (unusedMatrix != -1) {
+						keep[unusedMatrix] = false;
+					}
+					unusedMatrix = target[i] ? -1 : i;
+					matrix = m;
+				}
+					break;
+
+				case INST_STYLE: {
+					final SvgStyle s = styleList.get(code[i + 1]);
+					keep[i] = s != style;
+					style = s;
+				}
+					break;
+
+				case INST_BEGINGROUP:
+					// The group's matrix is just before it.
+					groupKept[depth] = i >= 2 && target[i - 2];
+					keep[i] = groupKept[depth++];
+					if (keep[i]) {
+						batchPath = -1;
+					}
+					break;
+
+				case INST_ENDGROUP:
+					keep[i] = groupKept[--depth];
+					if (keep[i]) {
+						batchPath = -1;
+					}
+					break;
+
+				case INST_FLATPATH: {
+					// Its matrix only scales the stroke width and gradient, see addPath().
+					if (null == style || style.hasStroke || style.hasFill && style.fillGradient != -1) {
+						unusedMatrix = -1;
+					}
+
+					final int path = code[i + 1];
+					if (null == style || !style.hasFill || style.hasStroke || !mPathData.startsContour(path)) {
+						batchPath = -1;
+						break;
+					}
+					mPathData.getBounds(path, bounds);
+					boolean join = batchPath != -1 && path == batchPath + 1 && style == batchStyle
+							&& (style.fillGradient == -1 || Arrays.equals(matrix, batchMatrix));
+					for (int b = 0; join && b < batchBoundsLength; b += 4) {
+						join = bounds[0] >= batchBounds[b + 2] || bounds[2] <= batchBounds[b]
+								|| bounds[1] >= batchBounds[b + 3] || bounds[3] <= batchBounds[b + 1];
+					}
+					if (join) {
+						keep[i] = false;
+						joined[path] = true;
+					}
+					else {
+						batchStyle = style;
+						batchMatrix = matrix;
+						batchBoundsLength = 0;
+					}
+					if (batchBoundsLength == batchBounds.length) {
+						final float[] grown = new float[batchBoundsLength * 2];
+						System.arraycopy(batchBounds, 0, grown, 0, batchBoundsLength);
+						batchBounds = grown;
+					}
+					System.arraycopy(bounds, 0, batchBounds, batchBoundsLength, 4);
+					batchBoundsLength += 4;
+					batchPath = path;
+				}
+					break;
+
+				case INST_PATH:
+				case INST_TEXTSTRING:
+					unusedMatrix = -1;
+					batchPath = -1;
+					break;
+
+				case INST_IDSTRING:
+				case INST_ARC:
+					batchPath = -1;
+					break;
+			}
+		}
+
+		// Copy them, with the matrices and styles they refer to.
+		final int[] pathIndex = mPathData.join(joined);
+		final int[] moved = new int[count];
+		final int[] result = new int[count];
+		int length = 0;
+		final ArrayList<float[]> matrices = new ArrayList<float[]>();
+		final HashMap<FloatBuffer, Integer> matrixIndex = new HashMap<FloatBuffer, Integer>();
+		final ArrayList<SvgStyle> styles = new ArrayList<SvgStyle>();
+		final IdentityHashMap<SvgStyle, Integer> styleIndex = new IdentityHashMap<SvgStyle, Integer>();
+
+		for (int i = 0; i < count; i += instructionLength(code[i])) {
+			if (!keep[i]) {
+				continue;
+			}
+			moved[i] = length;
+			result[length++] = code[i];
+			switch (code[i]) {
+				case INST_MATRIX: {
+					final float[] m = matrixDataList.get(code[i + 1]);
+					final FloatBuffer key = FloatBuffer.wrap(m);
+					Integer idx = matrixIndex.get(key);
+					if (null == idx) {
+						idx = matrices.size();
+						matrixIndex.put(key, idx);
+						matrices.add(m);
+					}
+					result[length++] = idx;
+				}
+					break;
+
+				case INST_STYLE: {
+					final SvgStyle s = styleList.get(code[i + 1]);
+					Integer idx = styleIndex.get(s);
+					if (null == idx) {
+						idx = styles.size();
+						styleIndex.put(s, idx);
+						styles.add(s);
+					}
+					result[length++] = idx;
+				}
+					break;
+
+				case INST_PATH:
+				case INST_FLATPATH:
+					result[length++] = pathIndex[code[i + 1]];
+					break;
+
+				default:
+					if (instructionLength(code[i]) == 2) {
+						result[length++] = code[i + 1];
+					}
+					break;
+			}
+		}
+
+		bytecodeArr = new int[length];
+		System.arraycopy(result, 0, bytecodeArr, 0, length);
+		matrixDataList.clear();
+		matrixDataList.addAll(matrices);
+		styleList.clear();
+		styleList.addAll(styles);
+		for (final Map.Entry<String, Integer> entry : subtreeJumpMap.entrySet()) {
+			entry.setValue(moved[entry.getValue()]);
+		}
+	}
+
+
 	public Drawable paintDrawable(final Context context, final float max_height) {
 		final int view_height = (int) Math.floor(max_height);
 		final int view_width = (int) Math.floor(max_height / mRootSvgHeight * mRootSvgWidth);
 
-		final Bitmap bitmap = Bitmap.createBitmap(view_width, view_height, Bitmap.Config.ARGB_8888);
+		final Bitmap bitmap = SVGBitmapPool.acquire(view_width, view_height);
 		final Canvas canvas = new Canvas(bitmap);
 
 		paintImageToCanvas(
@@ -1576,7 +2191,9 @@ public class SVGParserRenderer extends DefaultHandler {
 				null,
 				view_width,
 				view_height,
-				false);
+				false,
+				0,
+				Integer.MAX_VALUE);
 
 		return new BitmapDrawable(bitmap);
 	}
@@ -1588,17 +2205,150 @@ public class SVGParserRenderer extends DefaultHandler {
 
 
 	public void paintImage(final Canvas canvas, final String groupNodeId, final View view, final ITpsvgController animHandler, final boolean fill) {
+		paintImage(canvas, groupNodeId, view, animHandler, fill, LAYER_ALL);
+	}
+
+
+	/**
+	 * Paint one layer of the image. The controller is only called for the dynamic layer (and
+	 * LAYER_ALL), as the other layers have nothing it can animate.
+	 *
+	 * @param layer
+	 *            One of the LAYER_ constants.
+	 */
+	public void paintImage(final Canvas canvas, final String groupNodeId, final View view, final ITpsvgController animHandler, final boolean fill, final int layer) {
 
 		// animHandler = animHandler;
 		final int view_width = view.getWidth();
 		final int view_height = view.getHeight();
 		// setCanvasScaleToSVG(canvas, view);
 
-		paintImageToCanvas(canvas, groupNodeId, animHandler, view_width, view_height, fill);
+		int from = 0;
+		int to = Integer.MAX_VALUE;
+		if (layer != LAYER_ALL) {
+			if (mDynamicStart < 0) {
+				// No dynamic elements: it is all background.
+				if (layer != LAYER_BACKGROUND) {
+					return;
+				}
+			}
+			else if (layer == LAYER_BACKGROUND) {
+				to = mDynamicStart;
+			}
+			else if (layer == LAYER_DYNAMIC) {
+				from = mDynamicStart;
+				to = mDynamicEnd;
+			}
+			else {
+				from = mDynamicEnd;
+			}
+		}
+
+		paintImageToCanvas(canvas, groupNodeId, animHandler, view_width, view_height, fill, from, to);
+	}
+
+
+	/**
+	 * @return Whether the image has anything to paint in the dynamic layer. See LAYER_DYNAMIC.
+	 */
+	public boolean hasDynamicLayer() {
+		return mDynamicStart >= 0;
+	}
+
+
+	/**
+	 * @return Whether the image has anything to paint in the foreground layer. See LAYER_DYNAMIC.
+	 */
+	public boolean hasForegroundLayer() {
+		if (mDynamicStart < 0) {
+			return false;
+		}
+		for (int i = mDynamicEnd; bytecodeArr[i] != INST_END; i += instructionLength(bytecodeArr[i])) {
+			if (bytecodeArr[i] == INST_PATH || bytecodeArr[i] == INST_FLATPATH || bytecodeArr[i] == INST_TEXTSTRING) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * @return The length of an instruction: 1, or 2 for an instruction that is followed by the
+	 *         index of the object it refers to, such as the path of INST_PATH in mPathData or the
+	 *         matrix of INST_MATRIX in matrixList.
+	 */
+	private static int instructionLength(final int inst) {
+		switch (inst) {
+			case INST_END:
+			case INST_BEGINGROUP:
+			case INST_ENDGROUP:
+				return 1;
+
+			default:
+				return 2;
+		}
 	}
 
 
-	private void paintImageToCanvas(final Canvas canvas, final String groupNodeId, final ITpsvgController animHandler, final int view_width, final int view_height, final boolean fill) {
+	/**
+	 * Fill and stroke a path, which is in document space, with the current Paints. The stroke width
+	 * and any gradient are in the space of workingMatrix.
+	 */
+	private void paintPath(final Canvas canvas, final Path path, final RenderContext rc) {
+		if (currentFillPaint != null) {
+
+			final Shader shader = currentFillPaint.getShader();
+			Matrix shaderBaseMatrix = null;
+			if (shader != null) {
+				shaderBaseMatrix = rc.baseMatrix(shader);
+				rc.shaderMatrix.set(shaderBaseMatrix);
+				rc.shaderMatrix.postConcat(workingMatrix);
+				shader.setLocalMatrix(rc.shaderMatrix);
+			}
+
+			canvas.drawPath(path, currentFillPaint);
+			if (shaderBaseMatrix != null) {
+				shader.setLocalMatrix(shaderBaseMatrix); // Restore shader's original Matrix
+			}
+		}
+
+		if (currentStrokePaint != null) {
+
+			workingMatrix.getValues(matrixValues);
+			final float storedStrokeWidth = currentStrokePaint.getStrokeWidth();
+			currentStrokePaint.setStrokeWidth(storedStrokeWidth * (Math.abs(matrixValues[Matrix.MSCALE_Y]) + Math.abs(matrixValues[Matrix.MSCALE_X]) / 2));
+			// Paint scaledPaint = new Paint(currentStrokePaint);
+			// scaledPaint.setStrokeWidth(scaledPaint.getStrokeWidth() * ( ( Math.abs(matrixValues[Matrix.MSCALE_Y]) + Math.abs(matrixValues[Matrix.MSCALE_X]) ) / 2 ) );
+
+			// //float curStrkWidth = scaledPaint.getStrokeWidth();
+			// //float newStrkWidth = ( Math.abs(f[Matrix.MSCALE_Y]) + Math.abs(f[Matrix.MSCALE_X]) ) / 2.0f ;
+			// //newStrkWidth = curStrkWidth * newStrkWidth;
+			// //scaledPaint.setStrokeWidth(newStrkWidth);
+
+			final Shader shader = currentStrokePaint.getShader();
+			Matrix shaderBaseMatrix = null;
+			if (shader != null) {
+				shaderBaseMatrix = rc.baseMatrix(shader);
+				rc.shaderMatrix.set(shaderBaseMatrix);
+				rc.shaderMatrix.postConcat(workingMatrix);
+				shader.setLocalMatrix(rc.shaderMatrix);
+			}
+
+			canvas.drawPath(path, currentStrokePaint);
+			currentStrokePaint.setStrokeWidth(storedStrokeWidth);
+			if (shaderBaseMatrix != null) {
+				shader.setLocalMatrix(shaderBaseMatrix); // Restore shader's original Matrix
+			}
+		}
+	}
+
+
+	/**
+	 * Run the code evaluator. Instructions outside of [from, to) only update the evaluator's
+	 * state (current matrix, style and pending id), nothing is painted and no controller
+	 * callbacks are made for them.
+	 */
+	private void paintImageToCanvas(final Canvas canvas, final String groupNodeId, final ITpsvgController animHandler, final int view_width, final int view_height, final boolean fill, final int from, final int to) {
 		float uniformScaleFactor;
 		if (fill) {
 			uniformScaleFactor = Math.max(view_width / mRootSvgWidth, view_height / mRootSvgHeight);
@@ -1611,40 +2361,34 @@ public class SVGParserRenderer extends DefaultHandler {
 		final float excessY = view_height / mRootSvgHeight - uniformScaleFactor;
 		final float excessX = view_width - uniformScaleFactor * mRootSvgWidth;
 
-		final Path workingPath = new Path();
-		final Path carryPath = new Path();
+		if (null == mRenderContext) {
+			mRenderContext = new RenderContext();
+		}
+		final RenderContext rc = mRenderContext;
+		final Path workingPath = rc.workingPath;
+		final Path carryPath = rc.carryPath;
+		carryPath.rewind();
 		int gDepth = 1;
 
 		codePtr = 0;
-		// TBD: I think that previous Matrix is remaining attached to something, so have to instance
-		// a new one each time
-		// currentMatrix.reset();
-		workingMatrix = new Matrix();
-		matrixListIterator = matrixList.listIterator();
-		pathListIterator = pathList.listIterator();
-		styleListIterator = styleList.listIterator();
-		textstringListIterator = textstringList.listIterator();
-		idstringListIterator = idstringList.listIterator();
-		arcsListIterator = arcsList.iterator();
+		// The matrices in matrixList are never modified, so the identity can be shared between
+		// frames as long as nothing else modifies it either.
+		rc.identityMatrix.reset();
+		workingMatrix = rc.identityMatrix;
+		// Index into idstringList of the id of the next path or text, if
+		// doSpecialIdCallbackForNextElement.
+		int idstringIdx = 0;
 		boolean doSpecialIdCallbackForNextElement = false;
 		int animIteration;
 		String animId;
-		final Matrix animMatrix = new Matrix();
-		Matrix shaderMatrix = new Matrix();
+		final Matrix animMatrix = rc.animMatrix;
 
 		if (groupNodeId != null) {
-			// TODO: It would be better if the GroupJumpTo object did all of this for us, or
-			// even better if all the data structures were somehow grouped together into a parent
-			// class and this was one of its methods.
-			if (subtreeJumpMap.containsKey(groupNodeId)) {
-				final GroupJumpTo jumpTo = subtreeJumpMap.get(groupNodeId);
-				codePtr = jumpTo.bytecodePosition;// -1;
-				matrixListIterator = matrixList.listIterator(jumpTo.matrixListPosition);
-				pathListIterator = pathList.listIterator(jumpTo.pathListPosition);
-				styleListIterator = styleList.listIterator(jumpTo.styleListPosition);
-				textstringListIterator = textstringList.listIterator(jumpTo.textstringListPosition);
-				idstringListIterator = idstringList.listIterator(jumpTo.idstringListPosition);
-				arcsListIterator = arcsList.listIterator(jumpTo.arcsListPosition);
+			// Every instruction names the objects it uses, so a subtree can be painted by starting
+			// at its first instruction.
+			final Integer position = subtreeJumpMap.get(groupNodeId);
+			if (null != position) {
+				codePtr = position;
 			}
 		}
 
@@ -1661,16 +2405,23 @@ public class SVGParserRenderer extends DefaultHandler {
 
 		while (bytecodeArr[codePtr] != INST_END && gDepth > 0) {
 
+			final boolean paint = codePtr >= from && codePtr < to;
+
 			switch (bytecodeArr[codePtr]) {
 
 				case INST_PATH:
+					if (!paint) {
+						carryPath.rewind();
+						doSpecialIdCallbackForNextElement = false;
+						break;
+					}
 					workingPath.rewind();
-					workingPath.addPath(pathListIterator.next());
+					workingPath.addPath(getPath(bytecodeArr[codePtr + 1]));
 					workingPath.addPath(carryPath);
 					workingPath.transform(workingMatrix);
 					carryPath.rewind();
 
-					// p = pathListIterator.next();
+					// p = pathList.get(pathIdx++);
 					// If we assume a Matrix is included for every path, even if it's an empty matrix,
 					// then we always pop the matrix on path creation. On the other hand if
 					// Matrix is only inserted for some paths then we somehow need to know whether
@@ -1685,7 +2436,7 @@ public class SVGParserRenderer extends DefaultHandler {
 
 						if (doSpecialIdCallbackForNextElement == true) {
 							if (animId == null) {
-								animId = idstringListIterator.next();
+								animId = idstringList.get(idstringIdx);
 							}
 							if (animHandler != null) {
 								animMatrix.reset();
@@ -1705,58 +2456,20 @@ public class SVGParserRenderer extends DefaultHandler {
 							}
 						}
 
-						shaderMatrix = null;
-						if (currentFillPaint != null) {
-
-							Matrix copyShaderMatrix = null;
-							if (currentFillPaint.getShader() != null) {
-								shaderMatrix = new Matrix();
-								currentFillPaint.getShader().getLocalMatrix(shaderMatrix);
-								copyShaderMatrix = new Matrix(shaderMatrix); // Deep copy.
-								copyShaderMatrix.postConcat(workingMatrix);
-								currentFillPaint.getShader().setLocalMatrix(copyShaderMatrix);
-							}
-
-							canvas.drawPath(workingPath, currentFillPaint);
-							if (shaderMatrix != null) {
-								currentFillPaint.getShader().setLocalMatrix(shaderMatrix); // Restore shader's original Matrix
-							}
-						}
-
-						if (currentStrokePaint != null) {
-
-							workingMatrix.getValues(matrixValues);
-							final float storedStrokeWidth = currentStrokePaint.getStrokeWidth();
-							currentStrokePaint.setStrokeWidth(storedStrokeWidth * (Math.abs(matrixValues[Matrix.MSCALE_Y]) + Math.abs(matrixValues[Matrix.MSCALE_X]) / 2));
-							// Paint scaledPaint = new Paint(currentStrokePaint);
-							// scaledPaint.setStrokeWidth(scaledPaint.getStrokeWidth() * ( ( Math.abs(matrixValues[Matrix.MSCALE_Y]) + Math.abs(matrixValues[Matrix.MSCALE_X]) ) / 2 ) );
-
-							// //float curStrkWidth = scaledPaint.getStrokeWidth();
-							// //float newStrkWidth = ( Math.abs(f[Matrix.MSCALE_Y]) + Math.abs(f[Matrix.MSCALE_X]) ) / 2.0f ;
-							// //newStrkWidth = curStrkWidth * newStrkWidth;
-							// //scaledPaint.setStrokeWidth(newStrkWidth);
-
-							Matrix copyShaderMatrix = null;
-
-							// TODO: Does this block now go after the canvas.drawPath?
-							if (currentStrokePaint.getShader() != null) {
-								shaderMatrix = new Matrix();
-								currentStrokePaint.getShader().getLocalMatrix(shaderMatrix);
-								copyShaderMatrix = new Matrix(shaderMatrix); // Deep copy.
-								copyShaderMatrix.postConcat(workingMatrix);
-								currentStrokePaint.getShader().setLocalMatrix(copyShaderMatrix);
-							}
-
-							canvas.drawPath(workingPath, currentStrokePaint);
-							currentStrokePaint.setStrokeWidth(storedStrokeWidth);
-						}
+						paintPath(canvas, workingPath, rc);
 
 					}
 					while (doSpecialIdCallbackForNextElement == true);
 					break;
 
+				case INST_FLATPATH:
+					if (paint) {
+						paintPath(canvas, getPath(bytecodeArr[codePtr + 1]), rc);
+					}
+					break;
+
 				case INST_MATRIX:
-					workingMatrix = matrixListIterator.next();
+					workingMatrix = matrixList.get(bytecodeArr[codePtr + 1]);
 					break;
 
 				case INST_BEGINGROUP:
@@ -1778,7 +2491,7 @@ public class SVGParserRenderer extends DefaultHandler {
 					break;
 
 				case INST_STYLE:
-					final SvgStyle currentStyle = styleListIterator.next();
+					final SvgStyle currentStyle = styleList.get(bytecodeArr[codePtr + 1]);
 					if (currentStyle.hasStroke) {
 						// IMPORTANT: Making copy as opposed to a reference. This enables
 						// currentStrokePaint to be modified without risk of making changes to
@@ -1800,7 +2513,11 @@ public class SVGParserRenderer extends DefaultHandler {
 					break;
 
 				case INST_TEXTSTRING:
-					final Textstring ts = textstringListIterator.next();
+					if (!paint) {
+						doSpecialIdCallbackForNextElement = false;
+						break;
+					}
+					final Textstring ts = textstringList.get(bytecodeArr[codePtr + 1]);
 					workingMatrix.getValues(matrixValues);
 					// We might have already got the values for currentMatrix before, to save
 					// on this operation.
@@ -1814,7 +2531,7 @@ public class SVGParserRenderer extends DefaultHandler {
 
 						if (doSpecialIdCallbackForNextElement == true) {
 							if (animId == null) {
-								animId = idstringListIterator.next();
+								animId = idstringList.get(idstringIdx);
 							}
 							if (animHandler != null) {
 								// animMatrix.reset(); //Matrix animMatrix = new Matrix();
@@ -1850,11 +2567,15 @@ public class SVGParserRenderer extends DefaultHandler {
 					break;
 
 				case INST_IDSTRING:
+					idstringIdx = bytecodeArr[codePtr + 1];
 					doSpecialIdCallbackForNextElement = true;
 					break;
 
 				case INST_ARC:
-					final Arc arc = arcsListIterator.next();
+					if (!paint) {
+						break;
+					}
+					final Arc arc = arcsList.get(bytecodeArr[codePtr + 1]);
 					// Path path = new Path();
 					if (animHandler != null) {
 						animHandler.arcParams(arc.animId, carryPath, arc.angleStart, arc.angleExtent, arc.bounds);
@@ -1865,7 +2586,7 @@ public class SVGParserRenderer extends DefaultHandler {
 					break;
 
 			}
-			codePtr++;
+			codePtr += instructionLength(bytecodeArr[codePtr]);
 
 		}
 	}
@@ -1876,247 +2597,227 @@ public class SVGParserRenderer extends DefaultHandler {
 
 	private void parseAttributes(final Attributes attributes) {
 
-		String v;
-
 		mProperties.transformData = null;
 		mProperties.styleData = null;
+		mProperties.stopColour = null;
+		mProperties.stopOpacity = null;
 		mProperties.id = "";
 
-		final AttributesImpl attrImpl = new AttributesImpl(attributes); // quicker to cast?
-
 		final SvgStyle s = mProperties.svgStyle; // styleParseStack.peek(); // new Style();
 
 		// Opacity: Not sure if the 'opacity' attribute (as opposed to fill-opacity or stroke-opacity
 		// attributes) is supposed to inherit, so for now reset it to 1 each time. Remove this later
 		// if it needs to inherit. Also, fill-opacity and stroke-opacity do inherit for time being.
-		s.masterOpacity = 1;
-		s.fillOpacity = 1;
-		s.strokeOpacity = 1;
-
-		// During execution of the loop, the length of attrImpl will expand if a <style> attribute
-		// exists. A <style> tag's value itself contains a list of semicolon-separated key/value pairs.
-		// The <style>'s key/value pairs are converted into attribute key/values,
-		// taking advantage of AttributesImpl class .addAttribute method in doing so. The reason for
-		// 'inflating' <style> into attributes is because graphical style attributes
-		// can be present in an SVG file as either normal attributes, or contained as key/values
-		// in the value of a <style> tag; we need to be able to process both situations.
-
-		for (int n = 0; n < attrImpl.getLength(); n++) {
-
-			v = attrImpl.getValue(n).trim(); // Value could contain prefix/suffix spaces; remove them.
-			switch (Attr.toAttr(attrImpl.getLocalName(n))) {
-
-				case x:
-					mProperties.x = parseCoOrdinate(v);
-					break;
-
-				case y:
-					mProperties.y = parseCoOrdinate(v);
-					break;
-
-				case x1:
-					mProperties.x1 = parseCoOrdinate(v);
-					break;
-
-				case y1:
-					mProperties.y1 = parseCoOrdinate(v);
-					break;
-
-				case x2:
-					mProperties.x2 = parseCoOrdinate(v);
-					break;
-
-				case y2:
-					mProperties.y2 = parseCoOrdinate(v);
-					break;
-
-				case cx:
-					mProperties.cx = parseCoOrdinate(v);
-					break;
-
-				case cy:
-					mProperties.cy = parseCoOrdinate(v);
-					break;
-
-				case r:
-					mProperties.radius = parseCoOrdinate(v);
-					break;
-
-				case width:
-					mProperties.width = parseCoOrdinate(v);
-					break;
-
-				case height:
-					mProperties.height = parseCoOrdinate(v);
-					break;
-
-				case d:
-					mProperties.pathData = v;
-					break;
-
-				case transform:
-					mProperties.transformData = v;
-					break;
-
-				case gradientTransform:
-					mProperties.transformData = v;
-					break;
-
-				case id:
-					mProperties.id = v;
-					break;
-
-				case href:
-					mProperties.xlink_href = v;
-					break;
-
-				// ------- Graphical style attributes -------
+		s.masterOpacity = 1;
+		s.fillOpacity = 1;
+		s.strokeOpacity = 1;
 
-				case style:
-					mProperties.styleData = v;
-					parseAttributeValuePairsIntoSaxAttributesImpl(attrImpl);
-					// The number of attribute key/value pairs has now been increased.
-					break;
+		final int length = attributes.getLength();
+		for (int n = 0; n < length; n++) {
+			final int code = SVGNames.attribute(attributes.getLocalName(n));
+			if (code != SVGNames.ATTR_UNKNOWN) {
+				// Value could contain prefix/suffix spaces; remove them.
+				parseAttribute(code, attributes.getValue(n).trim());
+			}
+		}
 
-				case font_size:
-					s.strokePaint.setTextSize(parseCoOrdinate(v));
-					s.fillPaint.setTextSize(parseCoOrdinate(v));
-					break;
+		// Graphical style attributes can be present in an SVG file as either normal attributes, or
+		// as declarations in the value of a style attribute; we need to be able to process both
+		// situations. The style attribute's declarations take precedence, so they come last.
+		if (null != mProperties.styleData) {
+			parseStyle(mProperties.styleData);
+		}
 
-				case font_family:
-					final Typeface typeface = getTypeface(v);
-					// if (typeface != null) {
-					s.strokePaint.setTypeface(typeface);
-					s.fillPaint.setTypeface(typeface);
-					// }
-					break;
+		mProperties.svgStyle = internStyle(s);
+	}
 
-				case fill:
-					if (!v.equals("none")) {
-						if (v.startsWith("url")) {
-							// Assume the form fill:url(#[ID_STRING])
-							final int gradientIdx = this.getGradientByIdString(v.substring(5, v.length() - 1));
-							// TODO: This is giving the Paint a *reference* to one of the Shader objects
-							// in the gradientList. This is possibly okay, but because we need to
-							// apply the current Path's Matrix as the gradient's local Matrix during
-							// rendering, we have to be careful not to permanently modify the shader,
-							// as otherwise any changes (Matrix transformation etc) will affect
-							// subsequent uses of that Shader.
-							s.fillPaint.setShader(gradientList.get(gradientIdx).shader);
-						}
 
-						else {
-							// Set the colour, while preserving the alpha (in case alpha is to be inherited rather
-							// than being explicity set in the element's own style attributes)
-							final int alpha = s.fillPaint.getAlpha();
-							s.fillPaint.setColor(parseColour(v));
-							s.fillPaint.setAlpha(alpha);
-						}
-						s.fillPaint.setStyle(Paint.Style.FILL);
-						// TODO: Should only need do this once in Style constructor!
-						s.hasFill = true;
-					}
-					else { // The attribute is fill="none".
-						s.hasFill = false;
+	/**
+	 * Process one attribute, or one declaration of a style attribute.
+	 *
+	 * @param code
+	 *            The attribute's SVGNames.ATTR_ code.
+	 */
+	private void parseAttribute(final int code, final String v) {
+		final SvgStyle s = mProperties.svgStyle;
+
+		switch (code) {
+
+			case SVGNames.ATTR_X:
+				mProperties.x = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_Y:
+				mProperties.y = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_X1:
+				mProperties.x1 = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_Y1:
+				mProperties.y1 = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_X2:
+				mProperties.x2 = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_Y2:
+				mProperties.y2 = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_CX:
+				mProperties.cx = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_CY:
+				mProperties.cy = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_R:
+				mProperties.radius = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_WIDTH:
+				mProperties.width = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_HEIGHT:
+				mProperties.height = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_D:
+				mProperties.pathData = v;
+				break;
+
+			case SVGNames.ATTR_TRANSFORM:
+				mProperties.transformData = v;
+				break;
+
+			case SVGNames.ATTR_GRADIENTTRANSFORM:
+				mProperties.transformData = v;
+				break;
+
+			case SVGNames.ATTR_ID:
+				mProperties.id = v;
+				break;
+
+			case SVGNames.ATTR_HREF:
+				mProperties.xlink_href = v;
+				break;
+
+			// ------- Graphical style attributes -------
+
+			case SVGNames.ATTR_STYLE:
+				mProperties.styleData = v;
+				break;
+
+			case SVGNames.ATTR_FONT_SIZE:
+				s.textSize = parseCoOrdinate(v);
+				break;
+
+			case SVGNames.ATTR_FONT_FAMILY:
+				// The Typeface is looked up when the Paints are created.
+				s.fontFamily = v;
+				break;
+
+			case SVGNames.ATTR_FILL:
+				if (!v.equals("none")) {
+					if (v.startsWith("url")) {
+						// Assume the form fill:url(#[ID_STRING])
+						// TODO: This gives the Paint a *reference* to one of the Shader objects
+						// in the gradientList. This is possibly okay, but because we need to
+						// apply the current Path's Matrix as the gradient's local Matrix during
+						// rendering, we have to be careful not to permanently modify the shader,
+						// as otherwise any changes (Matrix transformation etc) will affect
+						// subsequent uses of that Shader.
+						s.fillGradient = referenceGradient(v.substring(5, v.length() - 1));
 					}
-					break;
 
-				case opacity:
-					s.masterOpacity = parseAttrValueFloat(v);
-					s.fillPaint.setAlpha((int) (s.masterOpacity * s.fillOpacity * 255));
-					s.strokePaint.setAlpha((int) (s.masterOpacity * s.strokeOpacity * 255));
-					break;
-
-				case fill_opacity: {
-					final float opacity = parseAttrValueFloat(v);
-					s.fillOpacity = opacity;
-					s.fillPaint.setAlpha((int) (opacity * s.masterOpacity * 255));
+					else {
+						// Set the colour, while preserving the alpha (in case alpha is to be inherited rather
+						// than being explicity set in the element's own style attributes)
+						s.fillColour = withAlpha(parseColour(v), s.fillColour >>> 24);
+					}
+					s.hasFill = true;
 				}
-					break;
-
-				case stroke_opacity: {
-					final float opacity = parseAttrValueFloat(v);
-					s.strokeOpacity = opacity;
-					s.strokePaint.setAlpha((int) (opacity * s.masterOpacity * 255));
+				else { // The attribute is fill="none".
+					s.hasFill = false;
 				}
-					break;
-
-				case stroke:
-					if (!v.equals("none")) {
-						if (v.startsWith("url")) {
-							// Assume the form fill:url(#[ID_STRING])
-							final int gradientIdx = this.getGradientByIdString(v.substring(5, v.length() - 1));
-							// TODO: See comments further above (in 'fill') regarding Shader.
-							s.strokePaint.setShader(gradientList.get(gradientIdx).shader);
-						}
-						else {
-							// Set the colour, while preserving the alpha (in case alpha is to be inherited rather
-							// than being explicity set in the element's own style attributes)
-							final int alpha = s.strokePaint.getAlpha();
-							s.strokePaint.setColor(parseColour(v));
-							s.strokePaint.setAlpha(alpha);
-						}
-						s.strokePaint.setStyle(Paint.Style.STROKE); // TODO: Should only have to do once in the constructor!
-						s.hasStroke = true;
-					}
-					else { // The attribute is stroke="none".
-						s.hasStroke = false;
-					}
-					break;
-
-				case stroke_width:
-					s.strokePaint.setStrokeWidth(parseCoOrdinate(v));
-					break;
-
-				case points:
-					mProperties.pointsData = v;
-					break;
+				break;
+
+			case SVGNames.ATTR_OPACITY:
+				s.masterOpacity = parseAttrValueFloat(v);
+				s.fillColour = withAlpha(s.fillColour, (int) (s.masterOpacity * s.fillOpacity * 255));
+				s.strokeColour = withAlpha(s.strokeColour, (int) (s.masterOpacity * s.strokeOpacity * 255));
+				break;
+
+			case SVGNames.ATTR_FILL_OPACITY: {
+				final float opacity = parseAttrValueFloat(v);
+				s.fillOpacity = opacity;
+				s.fillColour = withAlpha(s.fillColour, (int) (opacity * s.masterOpacity * 255));
+			}
+				break;
 
-				case text_align:
-					Paint.Align align = Paint.Align.LEFT;
-					if (v.startsWith("center")) {
-						align = Paint.Align.CENTER;
+			case SVGNames.ATTR_STROKE_OPACITY: {
+				final float opacity = parseAttrValueFloat(v);
+				s.strokeOpacity = opacity;
+				s.strokeColour = withAlpha(s.strokeColour, (int) (opacity * s.masterOpacity * 255));
+			}
+				break;
+
+			case SVGNames.ATTR_STROKE:
+				if (!v.equals("none")) {
+					if (v.startsWith("url")) {
+						// Assume the form fill:url(#[ID_STRING])
+						// TODO: See comments further above (in 'fill') regarding Shader.
+						s.strokeGradient = referenceGradient(v.substring(5, v.length() - 1));
 					}
-					else if (v.startsWith("right")) {
-						align = Paint.Align.RIGHT;
+					else {
+						// Set the colour, while preserving the alpha (in case alpha is to be inherited rather
+						// than being explicity set in the element's own style attributes)
+						s.strokeColour = withAlpha(parseColour(v), s.strokeColour >>> 24);
 					}
+					s.hasStroke = true;
+				}
+				else { // The attribute is stroke="none".
+					s.hasStroke = false;
+				}
+				break;
 
-					s.strokePaint.setTextAlign(align);
-					s.fillPaint.setTextAlign(align);
-					break;
-
-				default:
-					break;
+			case SVGNames.ATTR_STROKE_WIDTH:
+				s.strokeWidth = parseCoOrdinate(v);
+				break;
 
-			}
-		}
+			case SVGNames.ATTR_STOP_COLOR:
+				mProperties.stopColour = v;
+				break;
 
-		// mProperties.style = s;
-	}
+			case SVGNames.ATTR_STOP_OPACITY:
+				mProperties.stopOpacity = v;
+				break;
 
+			case SVGNames.ATTR_POINTS:
+				mProperties.pointsData = v;
+				break;
 
-	// ------------------------------------------------------------------------------
+			case SVGNames.ATTR_TEXT_ALIGN:
+				int align = SvgStyle.ALIGN_LEFT;
+				if (v.startsWith("center")) {
+					align = SvgStyle.ALIGN_CENTER;
+				}
+				else if (v.startsWith("right")) {
+					align = SvgStyle.ALIGN_RIGHT;
+				}
 
-	private void parseAttributeValuePairsIntoMap(final Map<String, String> map) {
-		// Typical format is:
-		// font-size:40px;font-style:normal;font-variant:normal; ...
-		final Pattern keyValuePattern = Pattern.compile("([\\w-#]+\\s*):(\\s*[\\w-#\\.\\(\\)\\s,]*)"); // basically need to change this to match virtually anything on each side of the : except for a few symbols
-		final Matcher keyValueMatcher = keyValuePattern.matcher(mProperties.styleData);
-		while (keyValueMatcher.find()) {
-			map.put(keyValueMatcher.group(1), keyValueMatcher.group(2));
-		}
-	}
+				s.textAlign = align;
+				break;
 
+			default:
+				break;
 
-	private int parseAttributeValuePairsIntoSaxAttributesImpl(final AttributesImpl attr) {
-		int quantityAdded = 0;
-		final Pattern keyValuePattern = Pattern.compile("([\\w-#]+\\s*):(\\s*[\\w-#\\.\\(\\)\\s,]*)"); // basically need to change this to match virtually anything on each side of the : except for a few symbols
-		final Matcher keyValueMatcher = keyValuePattern.matcher(mProperties.styleData);
-		while (keyValueMatcher.find()) {
-			attr.addAttribute("", keyValueMatcher.group(1), "", "", keyValueMatcher.group(2));
-			quantityAdded++;
 		}
-		return quantityAdded;
 	}
 
 
@@ -2138,6 +2839,16 @@ public class SVGParserRenderer extends DefaultHandler {
 	 * TODO: This method needs error checking and reporting.
 	 */
 	private int parseColour(final String value) {
+		Integer colour = mInternTable.getColour(value);
+		if (null == colour) {
+			colour = Integer.valueOf(parseColourValue(value));
+			mInternTable.putColour(value, colour);
+		}
+		return colour.intValue();
+	}
+
+
+	private int parseColourValue(final String value) {
 
 		int result = 0xffffff;
 
@@ -2190,20 +2901,63 @@ public class SVGParserRenderer extends DefaultHandler {
 
 
 	public void parseImageFile(final Context context, final InputStream inStream) {
-		mContext = context;
+		parseDocument(inStream);
+		createRenderObjects(context);
+	}
+
+
+	/**
+	 * Parse the SVG document into bytecode and plain data only, without creating any of the
+	 * android.graphics objects that rendering needs. This is all the build time compiler runs, on
+	 * a Java VM that has no Android runtime.
+	 */
+	void parseDocument(final InputStream inStream) {
+		try {
+			parseDocument(inStream, false);
+		}
+		catch (final Exception e) {
+			// Not thrown when errors are ignored.
+		}
+	}
+
+
+	/**
+	 * As parseDocument(InputStream), with a choice of what happens when the document cannot be
+	 * read.
+	 *
+	 * @param strict
+	 *            Throw the exception that stopped the parse. Otherwise, like the other parse
+	 *            methods, the image is whatever was parsed before the problem.
+	 */
+	void parseDocument(final InputStream inStream, final boolean strict) throws Exception {
+		if (!mInternTableShared) {
+			mInternTable = new SVGInternTable();
+		}
 		tagDepth = 0;
+		mSubtreeDepth = 0;
+		mCallbackPending = false;
+		mDynamicPending = false;
 		codePtr = 0;
+		currentX = 0;
+		currentY = 0;
+		lastControlPointX = 0;
+		lastControlPointY = 0;
 		mProperties = new Properties();
 
 		this.gradientList.clear();
+		mGradientIndex.clear();
+		this.matrixDataList.clear();
 		this.matrixList.clear();
 		matrixEvStack.clear();
 		this.paintStack.clear();
-		this.pathList.clear();
+		this.mPathData.clear();
+		this.paths = new Path[0];
 		this.styleList.clear();
 		this.arcsList.clear();
+		mStyleInternMap.clear();
 
-		bytecodeList = new ArrayList<Byte>();
+		bytecodeBuffer = new int[256];
+		bytecodeLength = 0;
 		// mMetaDataQueryMap.clear();
 
 		// Initialise the style stack with a first entry containing all of the default values.
@@ -2217,25 +2971,92 @@ public class SVGParserRenderer extends DefaultHandler {
 		// Resources res = context.getResources();
 
 		// inStream = res.openRawResource(/*R.raw.gaugetest20*/ resourceID);
-		final SAXParserFactory spf = SAXParserFactory.newInstance();
+		Exception error = null;
 		try {
-			final SAXParser sp = spf.newSAXParser();
-			final XMLReader xr = sp.getXMLReader();
-			xr.setContentHandler(this);
-			xr.parse(new InputSource(inStream));
+			readXml(inStream, this, mPullParser);
 		}
 		catch (final Exception e) {
-
+			error = e;
 		}
 
+		resolveGradientHrefs();
+		mGradientIndex.clear();
+
 		addInstruction(INST_END); // could also go in endDocument if it exists.
-		bytecodeArr = new byte[bytecodeList.size()];
-		for (int i = 0; i < bytecodeList.size(); i++) {
-			bytecodeArr[i] = bytecodeList.get(i);
+		if (mOptimizeBytecode) {
+			optimizeBytecode();
+		}
+		else {
+			bytecodeArr = new int[bytecodeLength];
+			System.arraycopy(bytecodeBuffer, 0, bytecodeArr, 0, bytecodeLength);
+		}
+
+		bytecodeBuffer = null;
+
+		mStyleInternMap.clear();
+
+		if (!mInternTableShared) {
+			// Only the hit counters are kept.
+			mInternTable.clear();
+		}
+
+		if (strict && null != error) {
+			throw error;
+		}
+	}
+
+
+	/**
+	 * Read an XML document into the callbacks of a handler, which also resolves its external
+	 * entities. The stream is buffered if it is not already, and decompressed as it is read if it is
+	 * a gzip compressed .svgz document. It is not closed.
+	 *
+	 * @param pullParser
+	 *            Read it with SVGPullParser rather than a SAXParser, where available.
+	 */
+	static void readXml(final InputStream inStream, final DefaultHandler handler, final boolean pullParser) throws Exception {
+		// Resource and file streams are read a few bytes at a time by the parsers otherwise.
+		InputStream in = inStream instanceof BufferedInputStream || inStream instanceof ByteArrayInputStream ? inStream
+				: new BufferedInputStream(inStream, PARSE_BUFFER_SIZE);
+		SVGGzipInputStream gzip = null;
+		try {
+			if (SVGGzipInputStream.isGzip(in)) {
+				in = gzip = new SVGGzipInputStream(in);
+			}
+			if (!pullParser || !SVGPullParser.parse(in, handler)) {
+				final XMLReader xr = obtainSaxReader();
+				xr.setContentHandler(handler);
+				xr.setEntityResolver(handler);
+				try {
+					xr.parse(new InputSource(in));
+				}
+				finally {
+					xr.setContentHandler(IDLE_HANDLER);
+					xr.setEntityResolver(IDLE_HANDLER);
+				}
+			}
+		}
+		finally {
+			if (null != gzip) {
+				gzip.release();
+			}
 		}
+	}
+
 
-		bytecodeList = null; // TODO: test this doesn't break anything
-		mContext = null;
+	/**
+	 * @return This thread's SAX reader, created on first use.
+	 */
+	private static XMLReader obtainSaxReader() throws Exception {
+		XMLReader xr = saxReaders.get();
+		if (null == xr) {
+			final SAXParserFactory spf = SAXParserFactory.newInstance();
+			// Android's parser is namespace aware by default, a desktop JAXP parser is not.
+			spf.setNamespaceAware(true);
+			xr = spf.newSAXParser().getXMLReader();
+			saxReaders.set(xr);
+		}
+		return xr;
 	}
 
 
@@ -2254,18 +3075,39 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
+	/**
+	 * Apply the declarations of a style attribute, such as "fill:#ff0000;stroke-width:2px", as if
+	 * each was an attribute of the element. The declarations are split up once for each distinct
+	 * style value, see SVGInternTable.
+	 */
+	private void parseStyle(final String style) {
+		SVGInternTable.Style parsed = mInternTable.getStyle(style);
+		if (null == parsed) {
+			parsed = splitStyle(style);
+			mInternTable.putStyle(style, parsed);
+		}
+		for (int i = 0; i < parsed.codes.length; i++) {
+			parseAttribute(parsed.codes[i], parsed.values[i]);
+		}
+	}
+
+
 	private void path() {
 		float rx, ry, x_axis_rotation, x, y, x1, y1, x2, y2;
 		boolean firstElement = true, carry = false, large_arc_flag, sweep_flag;
-		final PathTokenizer t = new PathTokenizer();
-		t.getToken(mProperties.pathData);
-		final Path p = new Path();
+		// Whether the previous command was a cubic curve, the control point of which a smooth
+		// curve reflects. Each path starts afresh, whatever came before it in the document.
+		boolean afterCubic = false;
+		final SVGPathScanner t = mPathScanner;
+		t.reset(mProperties.pathData);
+		final SVGPathData p = mPathData;
+		p.beginPath();
 		char currentCommandLetter = '?';
 
 		do {
-			if (t.currentTok == PathTokenizer.LTOK_LETTER) {
+			if (t.currentTok == SVGPathScanner.TOK_LETTER) {
 				currentCommandLetter = t.tokenChar;
-				t.getToken(null);
+				t.nextToken();
 			}
 
 			// If the current token is not alpha (a letter) but a number, then it's an implied command,
@@ -2276,7 +3118,7 @@ public class SVGParserRenderer extends DefaultHandler {
 				case 'M':
 				case 'm':
 					x = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					y = t.tokenF;
 					// A relative moveto command, 'm', is interpreted as an absolute
 					// moveto (M) if it's the first element.
@@ -2298,7 +3140,7 @@ public class SVGParserRenderer extends DefaultHandler {
 				case 'L':
 				case 'l':
 					x = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					y = t.tokenF;
 					if (currentCommandLetter == 'l') {
 						x += currentX;
@@ -2338,17 +3180,17 @@ public class SVGParserRenderer extends DefaultHandler {
 				case 'A':
 				case 'a':
 					rx = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					ry = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					x_axis_rotation = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					large_arc_flag = t.tokenF == 0f ? false : true;
-					t.getToken(null);
+					t.nextToken();
 					sweep_flag = t.tokenF == 0f ? false : true;
-					t.getToken(null);
+					t.nextToken();
 					x = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					y = t.tokenF;
 					if (currentCommandLetter == 'a') {
 						x += currentX;
@@ -2362,15 +3204,15 @@ public class SVGParserRenderer extends DefaultHandler {
 				case 'C':
 				case 'c':
 					x1 = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					y1 = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					x2 = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					y2 = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					x = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					y = t.tokenF;
 					if (currentCommandLetter == 'c') {
 						x += currentX;
@@ -2392,11 +3234,11 @@ public class SVGParserRenderer extends DefaultHandler {
 				case 'S':
 				case 's':
 					x2 = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					y2 = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					x = t.tokenF;
-					t.getToken(null);
+					t.nextToken();
 					y = t.tokenF;
 					if (currentCommandLetter == 's') {
 						x += currentX;
@@ -2404,10 +3246,18 @@ public class SVGParserRenderer extends DefaultHandler {
 						x2 += currentX;
 						y2 += currentY;
 					}
-					x1 = 2 * currentX - lastControlPointX;
-					y1 = 2 * currentY - lastControlPointY;
+					if (afterCubic) {
+						x1 = 2 * currentX - lastControlPointX;
+						y1 = 2 * currentY - lastControlPointY;
+					}
+					else {
+						x1 = currentX;
+						y1 = currentY;
+					}
 					// TODO: Could alternatively make use of rCubicTo if it's a relative command.
 					p.cubicTo(x1, y1, x2, y2, x, y);
+					lastControlPointX = x2;
+					lastControlPointY = y2;
 					currentX = x;
 					currentY = y;
 					break;
@@ -2429,42 +3279,62 @@ public class SVGParserRenderer extends DefaultHandler {
 			}
 
 			firstElement = false;
+			afterCubic = !carry && (currentCommandLetter == 'C' || currentCommandLetter == 'c'
+					|| currentCommandLetter == 'S' || currentCommandLetter == 's');
 			if (!carry) {
-				t.getToken(null);
+				t.nextToken();
 			}
 			carry = false;
 
 		}
-		while (t.currentTok != PathTokenizer.LTOK_END);
+		while (t.currentTok != SVGPathScanner.TOK_END);
 
-		addPath(p);
+		addPath();
 	}
 
 
 	private void polygon() {
 		float x, y;
-		final PathTokenizer t = new PathTokenizer();
-		t.getToken(mProperties.pointsData);
-		final Path p = new Path();
+		final SVGPathScanner t = mPathScanner;
+		t.reset(mProperties.pointsData);
+		final SVGPathData p = mPathData;
+		p.beginPath();
 
 		x = t.tokenF;
-		t.getToken(null);
+		t.nextToken();
 		y = t.tokenF;
-		t.getToken(null);
+		t.nextToken();
 		p.moveTo(x, y);
 
 		do {
 			x = t.tokenF;
-			t.getToken(null);
+			t.nextToken();
 			y = t.tokenF;
-			t.getToken(null);
+			t.nextToken();
 			p.lineTo(x, y);
 
 		}
-		while (t.currentTok != PathTokenizer.LTOK_END);
+		while (t.currentTok != SVGPathScanner.TOK_END);
 
 		p.close();
-		addPath(p);
+		addPath();
+	}
+
+
+	/**
+	 * Push the current element's transform, concatenated with those of its ancestors, on the
+	 * matrixEvStack. It is popped when the element ends.
+	 */
+	private void pushTransform() {
+		// this.matrixList.add(transform());
+		final float[] cm = transform(); // matrixList.get(matrixList.size()-1);
+
+		// new:
+		if (!matrixEvStack.empty()) {
+			SVGTransform.postConcat(cm, matrixEvStack.peek());
+		}
+		matrixEvStack.push(cm);
+		matrixExistsAtDepth[tagDepth] = true;
 	}
 
 
@@ -2502,7 +3372,7 @@ public class SVGParserRenderer extends DefaultHandler {
 		// explicitly defined for this Gradient.
 		if (mProperties.xlink_href != null) {
 			// It'll have the form #abcd where abcd is the ID
-			// int idx = this.getGradientByIdString(mProperties.xlink_href.substring(1));
+			// int idx = this.getGradientIndex(mProperties.xlink_href.substring(1));
 			// if(idx!=-1){
 			// Gradient xlinkGrad = this.gradientList.get(idx);
 			// currentGradient.stopColours = xlinkGrad.stopColours;
@@ -2523,11 +3393,21 @@ public class SVGParserRenderer extends DefaultHandler {
 
 
 	private void rect() {
-		final Path p = new Path();
-		p.addRect(mProperties.x, mProperties.y, mProperties.x + mProperties.width, mProperties.y + mProperties.height, Path.Direction.CW);
+		final SVGPathData p = mPathData;
+		p.beginPath();
+		p.addRect(mProperties.x, mProperties.y, mProperties.x + mProperties.width, mProperties.y + mProperties.height);
 		currentX = mProperties.x;
 		currentY = mProperties.y;
-		addPath(p);
+		addPath();
+	}
+
+
+	/**
+	 * Write the compiled document of this image, which can later be loaded with loadCompiled() or
+	 * the ByteBuffer constructor without parsing the SVG file again.
+	 */
+	public void writeCompiled(final OutputStream outStream) throws IOException {
+		SVGCompiledFormat.write(this, outStream);
 	}
 
 
@@ -2539,20 +3419,73 @@ public class SVGParserRenderer extends DefaultHandler {
 	// ------------------------------------------------------------------------------
 	// Code Evaluator
 
+	/**
+	 * Share an intern table with other parses, for example of a batch of documents from the same
+	 * editor. Must be called before the document is parsed, so it only applies to an image made
+	 * with the no argument constructor and then parseImageFile(). By default each parse has a
+	 * table of its own.
+	 */
+	public void setInternTable(final SVGInternTable table) {
+		mInternTable = table;
+		mInternTableShared = true;
+	}
+
+
+	/**
+	 * Keep the bytecode as the parser emits it, without optimizeBytecode(), so that the tests can
+	 * check that the optimized bytecode paints the same. Must be called before the document is
+	 * parsed.
+	 */
+	void setOptimizeBytecode(final boolean optimize) {
+		mOptimizeBytecode = optimize;
+	}
+
+
+	/**
+	 * Read documents with an XmlPullParser instead of a SAXParser. Either way each thread keeps
+	 * its parser for reuse. Falls back to SAX where there is no XmlPullParser implementation, such
+	 * as in the build time compiler. SVGParseBenchmark compares the two on a device.
+	 */
+	public void setPullParser(final boolean pullParser) {
+		mPullParser = pullParser;
+	}
+
+
+	/**
+	 * Only parse the groups with the given ids, with their descendants, for an image that will
+	 * only ever be painted a group at a time. Everything else is skipped, apart from the
+	 * gradients, the document size and the private data, so parsing time and memory depend on the
+	 * size of the groups rather than of the document. Each group is painted by paintImage() as it
+	 * would have been from the whole document; a null groupNodeId paints all of them.
+	 * Must be called before the document is parsed, as setInternTable(). No ids, or null, parses
+	 * the whole document.
+	 */
+	public void setSubtrees(final String... ids) {
+		mSubtreeIds = null == ids || ids.length == 0 ? null : new HashSet<String>(Arrays.asList(ids));
+	}
+
+
 	public void setPrivateDataNamespace(final String namespace) {
 		mPrivateDataNamespace = namespace;
 	}
 
 
+	/**
+	 * External entities, in practice the SVG DTD named by the DOCTYPE of some editors' output, are
+	 * never fetched: nothing in them is needed, and the build time compiler must work offline.
+	 */
+	@Override
+	public InputSource resolveEntity(final String publicId, final String systemId) {
+		return new InputSource(new StringReader(""));
+	}
+
+
 	@Override
 	public void startDocument() throws SAXException {
 		super.startDocument();
 	}
 
 
-	/**
-	 * Requires optimisation - lots of if / else that could be removed.
-	 */
 	@Override
 	public void startElement(final String uri, final String localName, final String qName,
 			final Attributes attributes) throws SAXException {
@@ -2560,8 +3493,12 @@ public class SVGParserRenderer extends DefaultHandler {
 		super.startElement(uri, localName, qName, attributes);
 
 		matrixExistsAtDepth[tagDepth] = false;
-		mCurrentElement = localName;
-		mProperties.svgStyle = new SvgStyle(mStyleParseStack.peek());
+		mCurrentTag = SVGNames.tag(localName);
+		// Styles are copy-on-write: the element's style is worked out in a scratch object, and then
+		// replaced by the interned instance, which is shared with every other element that ends up
+		// with the same style (such as children without style attributes of their own).
+		mStyleScratch.inherit(mStyleParseStack.peek());
+		mProperties.svgStyle = mStyleScratch;
 
 		if (mPrivateDataNamespace != null && qName.startsWith(mPrivateDataNamespace)) {
 			mPrivateDataCurrentKey = localName;
@@ -2570,57 +3507,177 @@ public class SVGParserRenderer extends DefaultHandler {
 			mPrivateDataCurrentKey = null;
 		}
 
-		if (localName.equalsIgnoreCase(STARTTAG_SVG)) {
-			parseAttributes(attributes);
-			svg();
-		}
-		else if (localName.equalsIgnoreCase(STARTTAG_G)) {
-			parseAttributes(attributes);
-			addBeginGroup(mProperties.id);
-		}
-		else if (localName.equalsIgnoreCase(STARTTAG_PATH)) {
-			parseAttributes(attributes);
-			path();
+		if (mSubtreeDepth > 0) {
+			mSubtreeDepth++;
 		}
-		else if (localName.equalsIgnoreCase(STARTTAG_RECT)) {
-			parseAttributes(attributes);
-			rect();
-		}
-		else if (localName.equalsIgnoreCase(STARTTAG_LINE)) {
-			parseAttributes(attributes);
-			line();
-		}
-		else if (localName.equalsIgnoreCase(STARTTAG_POLYGON)) {
-			parseAttributes(attributes);
-			polygon();
-		}
-		else if (localName.equalsIgnoreCase(STARTTAG_CIRCLE)) {
-			parseAttributes(attributes);
-			circle();
-		}
-		else if (localName.equalsIgnoreCase(STARTTAG_TEXT)) {
-			parseAttributes(attributes);
-			text_element();
-		}
-		else if (localName.equalsIgnoreCase(STARTTAG_TSPAN)) {
-			parseAttributes(attributes);
-			tspan_element();
+
+		switch (null == mSubtreeIds || mSubtreeDepth > 0 ? mCurrentTag : outsideSubtrees(attributes)) {
+			case SVGNames.TAG_SVG:
+				parseAttributes(attributes);
+				svg();
+				break;
+
+			case SVGNames.TAG_G:
+				parseAttributes(attributes);
+				addBeginGroup(mProperties.id);
+				break;
+
+			case SVGNames.TAG_PATH:
+				parseAttributes(attributes);
+				path();
+				break;
+
+			case SVGNames.TAG_RECT:
+				parseAttributes(attributes);
+				rect();
+				break;
+
+			case SVGNames.TAG_LINE:
+				parseAttributes(attributes);
+				line();
+				break;
+
+			case SVGNames.TAG_POLYGON:
+				parseAttributes(attributes);
+				polygon();
+				break;
+
+			case SVGNames.TAG_CIRCLE:
+				parseAttributes(attributes);
+				circle();
+				break;
+
+			case SVGNames.TAG_TEXT:
+				parseAttributes(attributes);
+				text_element();
+				break;
+
+			case SVGNames.TAG_TSPAN:
+				parseAttributes(attributes);
+				tspan_element();
+				break;
+
+			case SVGNames.TAG_LINEARGRADIENT:
+				parseAttributes(attributes);
+				linearGradient();
+				break;
+
+			case SVGNames.TAG_RADIALGRADIENT:
+				parseAttributes(attributes);
+				radialGradient();
+				break;
+
+			case SVGNames.TAG_STOP:
+				parseAttributes(attributes);
+				gradientStop();
+				break;
 		}
-		else if (localName.equalsIgnoreCase(STARTTAG_LINEARGRADIENT)) {
-			parseAttributes(attributes);
-			linearGradient();
+
+		if (mProperties.svgStyle == mStyleScratch) {
+			// The element's attributes were not parsed.
+			mProperties.svgStyle = internStyle(mStyleScratch);
 		}
-		else if (localName.equalsIgnoreCase(STARTTAG_RADIALGRADIENT)) {
-			parseAttributes(attributes);
-			radialGradient();
+		mStyleParseStack.add(mProperties.svgStyle);
+		tagDepth++;
+	}
+
+
+	/**
+	 * Deal with an element that is outside of the subtrees being parsed, see setSubtrees().
+	 *
+	 * @return The TAG_ code to handle the element as, TAG_UNKNOWN if there is nothing more to do.
+	 */
+	private int outsideSubtrees(final Attributes attributes) {
+		switch (mCurrentTag) {
+			case SVGNames.TAG_G:
+				for (int n = attributes.getLength() - 1; n >= 0; n--) {
+					if (SVGNames.attribute(attributes.getLocalName(n)) == SVGNames.ATTR_ID
+							&& mSubtreeIds.contains(attributes.getValue(n).trim())) {
+						mSubtreeDepth = 1;
+						return SVGNames.TAG_G;
+					}
+				}
+				// Not drawn, but its descendants inherit its style and transform.
+				parseAttributes(attributes);
+				pushTransform();
+				return SVGNames.TAG_UNKNOWN;
+
+			case SVGNames.TAG_SVG:
+			case SVGNames.TAG_LINEARGRADIENT:
+			case SVGNames.TAG_RADIALGRADIENT:
+			case SVGNames.TAG_STOP:
+				return mCurrentTag;
+
+			default:
+				// Shapes and text are skipped without looking at their attributes, so their path
+				// data is never scanned.
+				mCurrentTag = SVGNames.TAG_UNKNOWN;
+				return SVGNames.TAG_UNKNOWN;
 		}
-		else if (localName.equalsIgnoreCase(STARTTAG_STOP)) {
-			parseAttributes(attributes);
-			gradientStop();
+	}
+
+
+	/**
+	 * Split the declarations of a style attribute. The string is scanned in place, and only the
+	 * values of the properties that the parser handles are copied out of it.
+	 */
+	private static SVGInternTable.Style splitStyle(final String style) {
+		final int length = style.length();
+		int[] codes = new int[8];
+		String[] values = new String[8];
+		int count = 0;
+		int pos = 0;
+		while (pos < length) {
+			int colon = -1;
+			int end = pos;
+			while (end < length && style.charAt(end) != ';') {
+				if (colon < 0 && style.charAt(end) == ':') {
+					colon = end;
+				}
+				end++;
+			}
+
+			if (colon >= 0) {
+				int nameStart = pos;
+				int nameEnd = colon;
+				while (nameStart < nameEnd && style.charAt(nameStart) <= ' ') {
+					nameStart++;
+				}
+				while (nameEnd > nameStart && style.charAt(nameEnd - 1) <= ' ') {
+					nameEnd--;
+				}
+
+				final int code = SVGNames.attribute(style, nameStart, nameEnd);
+				if (code != SVGNames.ATTR_UNKNOWN) {
+					int valueStart = colon + 1;
+					int valueEnd = end;
+					while (valueStart < valueEnd && style.charAt(valueStart) <= ' ') {
+						valueStart++;
+					}
+					while (valueEnd > valueStart && style.charAt(valueEnd - 1) <= ' ') {
+						valueEnd--;
+					}
+					if (count == codes.length) {
+						final int[] moreCodes = new int[count * 2];
+						final String[] moreValues = new String[count * 2];
+						System.arraycopy(codes, 0, moreCodes, 0, count);
+						System.arraycopy(values, 0, moreValues, 0, count);
+						codes = moreCodes;
+						values = moreValues;
+					}
+					codes[count] = code;
+					values[count] = style.substring(valueStart, valueEnd);
+					count++;
+				}
+			}
+			pos = end + 1;
 		}
 
-		mStyleParseStack.add(mProperties.svgStyle);
-		tagDepth++;
+		final int[] finalCodes = new int[count];
+		final String[] finalValues = new String[count];
+		System.arraycopy(codes, 0, finalCodes, 0, count);
+		System.arraycopy(values, 0, finalValues, 0, count);
+		return new SVGInternTable.Style(finalCodes, finalValues);
 	}
 
 
@@ -2653,72 +3710,85 @@ public class SVGParserRenderer extends DefaultHandler {
 	}
 
 
-	private Matrix transform() {
+	/**
+	 * @return A new matrix for the current element's transform attribute, identity if it has none.
+	 */
+	private float[] transform() {
+		final float[] m = SVGTransform.identity();
+		if (mProperties.transformData != null) {
+			float[] parsed = mInternTable.getTransform(mProperties.transformData);
+			if (null == parsed) {
+				parsed = parseTransform(mProperties.transformData);
+				mInternTable.putTransform(mProperties.transformData, parsed);
+			}
+			System.arraycopy(parsed, 0, m, 0, 9);
+			mProperties.transformData = null;
+		}
+		return m;
+	}
+
+
+	private float[] parseTransform(final String transformData) {
 
 		float f1, f2;
-		final Matrix m = new Matrix();
+		final float[] m = SVGTransform.identity();
 		final ValueTokenizer t = new ValueTokenizer();
 
-		if (mProperties.transformData != null) {
-			t.getToken(mProperties.transformData);
-			do {
-				if (t.currentTok == ValueTokenizer.LTOK_STRING) {
-
-					if (t.tokenStr.equalsIgnoreCase("translate")) {
-						t.getToken(null);
-						f1 = t.tokenF;
-						t.getToken(null);
-						f2 = t.tokenF;
-						// Possibly use .postTranslate to apply over a previous transformation
+		t.getToken(transformData);
+		do {
+			if (t.currentTok == ValueTokenizer.LTOK_STRING) {
 
-						m.postTranslate(f1, f2);
+				if (t.tokenStr.equalsIgnoreCase("translate")) {
+					t.getToken(null);
+					f1 = t.tokenF;
+					t.getToken(null);
+					f2 = t.tokenF;
+					// Possibly use .postTranslate to apply over a previous transformation
 
-					}
+					SVGTransform.postTranslate(m, f1, f2);
 
-					else if (t.tokenStr.equalsIgnoreCase("rotate")) {
-						t.getToken(null);
-						f1 = t.tokenF;
-						// Possibly use .postTranslate to apply over a previous transformation
+				}
 
-						m.postRotate(f1);
+				else if (t.tokenStr.equalsIgnoreCase("rotate")) {
+					t.getToken(null);
+					f1 = t.tokenF;
+					// Possibly use .postTranslate to apply over a previous transformation
 
-					}
+					SVGTransform.postRotate(m, f1);
 
-					else if (t.tokenStr.equalsIgnoreCase("matrix")) {
-						final float f[] = new float[9];
-						t.getToken(null);
-						f[0] = t.tokenF;
-						t.getToken(null);
-						f[3] = t.tokenF;
-						t.getToken(null);
-						f[1] = t.tokenF;
-						t.getToken(null);
-						f[4] = t.tokenF;
-						t.getToken(null);
-						f[2] = t.tokenF;
-						t.getToken(null);
-						f[5] = t.tokenF;
-						f[6] = 0;
-						f[7] = 0;
-						f[8] = 1;
-						final Matrix post = new Matrix();
-						post.setValues(f);
-						m.postConcat(post);
-
-						// m.getValues(f);
-						// m.MTRANS_X is 2
-						// m.MTRANS_Y is 5
-
-						// m.setValues(f);
-					}
 				}
 
-				t.getToken(null);
+				else if (t.tokenStr.equalsIgnoreCase("matrix")) {
+					final float f[] = new float[9];
+					t.getToken(null);
+					f[0] = t.tokenF;
+					t.getToken(null);
+					f[3] = t.tokenF;
+					t.getToken(null);
+					f[1] = t.tokenF;
+					t.getToken(null);
+					f[4] = t.tokenF;
+					t.getToken(null);
+					f[2] = t.tokenF;
+					t.getToken(null);
+					f[5] = t.tokenF;
+					f[6] = 0;
+					f[7] = 0;
+					f[8] = 1;
+					SVGTransform.postConcat(m, f);
 
+					// m.getValues(f);
+					// m.MTRANS_X is 2
+					// m.MTRANS_Y is 5
+
+					// m.setValues(f);
+				}
 			}
-			while (t.currentTok != ValueTokenizer.LTOK_END);
-			mProperties.transformData = null;
+
+			t.getToken(null);
+
 		}
+		while (t.currentTok != ValueTokenizer.LTOK_END);
 		return m;
 	}
 
@@ -0,0 +1,374 @@
+package com.trevorpage.tpsvg;
+
+
+import android.graphics.Path;
+
+
+/**
+ * Compact, document wide storage for the geometry of every path in a parsed SVG image. Instead of
+ * building an android.graphics.Path while parsing, the parser records path verbs into a single
+ * byte array and their coordinates into a single float array. A Path is created from this data
+ * with toPath(). Being plain primitive arrays, the data can also be written to and read back from
+ * the compiled binary format without any knowledge of the native Path object.
+ */
+final class SVGPathData {
+
+	static final byte	VERB_CIRCLE		= 5;	// cx, cy, radius
+
+
+	static final byte	VERB_CLOSE		= 3;	// (no coordinates)
+
+
+	static final byte	VERB_CUBIC		= 2;	// x1, y1, x2, y2, x, y
+
+
+	static final byte	VERB_LINE		= 1;	// x, y
+
+
+	static final byte	VERB_MOVE		= 0;	// x, y
+
+
+	static final byte	VERB_RECT		= 4;	// left, top, right, bottom
+
+
+	int					coordCount;
+
+
+	float[]				coords			= new float[256];
+
+
+	int					pathCount;
+
+
+	// For each path, the index of its first coordinate in coords.
+	int[]				pathCoordStart	= new int[16];
+
+
+	// For each path, the index of its first verb in verbs. The verbs of a path end where those of
+	// the next path begin.
+	int[]				pathVerbStart	= new int[16];
+
+
+	int					verbCount;
+
+
+	byte[]				verbs			= new byte[64];
+
+
+	private static float[] grow(final float[] array, final int minLength) {
+		final float[] result = new float[Math.max(minLength, array.length * 2)];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+
+	private static int[] grow(final int[] array, final int minLength) {
+		final int[] result = new int[Math.max(minLength, array.length * 2)];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+
+	void addCircle(final float cx, final float cy, final float radius) {
+		addVerb(VERB_CIRCLE);
+		addCoords(cx, cy);
+		addCoord(radius);
+	}
+
+
+	private void addCoord(final float c) {
+		if (coordCount == coords.length) {
+			coords = grow(coords, coordCount + 1);
+		}
+		coords[coordCount++] = c;
+	}
+
+
+	private void addCoords(final float x, final float y) {
+		if (coordCount + 2 > coords.length) {
+			coords = grow(coords, coordCount + 2);
+		}
+		coords[coordCount++] = x;
+		coords[coordCount++] = y;
+	}
+
+
+	void addRect(final float left, final float top, final float right, final float bottom) {
+		addVerb(VERB_RECT);
+		addCoords(left, top);
+		addCoords(right, bottom);
+	}
+
+
+	private void addVerb(final byte verb) {
+		if (verbCount == verbs.length) {
+			final byte[] result = new byte[verbs.length * 2];
+			System.arraycopy(verbs, 0, result, 0, verbCount);
+			verbs = result;
+		}
+		verbs[verbCount++] = verb;
+	}
+
+
+	/**
+	 * Start recording a new path. All verbs added until the next call belong to it.
+	 *
+	 * @return The index of the new path.
+	 */
+	int beginPath() {
+		if (pathCount == pathVerbStart.length) {
+			pathVerbStart = grow(pathVerbStart, pathCount + 1);
+			pathCoordStart = grow(pathCoordStart, pathCount + 1);
+		}
+		pathVerbStart[pathCount] = verbCount;
+		pathCoordStart[pathCount] = coordCount;
+		return pathCount++;
+	}
+
+
+	void clear() {
+		verbCount = 0;
+		coordCount = 0;
+		pathCount = 0;
+	}
+
+
+	void close() {
+		addVerb(VERB_CLOSE);
+	}
+
+
+	void cubicTo(final float x1, final float y1, final float x2, final float y2, final float x, final float y) {
+		addVerb(VERB_CUBIC);
+		addCoords(x1, y1);
+		addCoords(x2, y2);
+		addCoords(x, y);
+	}
+
+
+	/**
+	 * Find the bounds of the points of a path, including the control points of its curves, which
+	 * contain the path.
+	 *
+	 * @param bounds
+	 *            Set to the left, top, right and bottom, or left greater than right if the path
+	 *            has no points.
+	 */
+	void getBounds(final int index, final float[] bounds) {
+		float left = Float.POSITIVE_INFINITY;
+		float top = Float.POSITIVE_INFINITY;
+		float right = Float.NEGATIVE_INFINITY;
+		float bottom = Float.NEGATIVE_INFINITY;
+		final float[] c = coords;
+		int ci = pathCoordStart[index];
+		final int verbEnd = index + 1 < pathCount ? pathVerbStart[index + 1] : verbCount;
+		for (int vi = pathVerbStart[index]; vi < verbEnd; vi++) {
+			int points;
+			float radius = 0;
+			switch (verbs[vi]) {
+				case VERB_CUBIC:
+					points = 3;
+					break;
+
+				case VERB_CLOSE:
+					points = 0;
+					break;
+
+				case VERB_RECT:
+					points = 2;
+					break;
+
+				case VERB_CIRCLE:
+					points = 1;
+					radius = Math.abs(c[ci + 2]);
+					break;
+
+				default:
+					points = 1;
+					break;
+			}
+			for (; points > 0; points--, ci += 2) {
+				left = Math.min(left, c[ci] - radius);
+				top = Math.min(top, c[ci + 1] - radius);
+				right = Math.max(right, c[ci] + radius);
+				bottom = Math.max(bottom, c[ci + 1] + radius);
+			}
+			if (verbs[vi] == VERB_CIRCLE) {
+				ci++;
+			}
+		}
+		bounds[0] = left;
+		bounds[1] = top;
+		bounds[2] = right;
+		bounds[3] = bottom;
+	}
+
+
+	/**
+	 * Join paths onto the paths before them, so that each group of joined paths is created as one
+	 * Path. The verbs and coordinates stay where they are, only the boundaries between the paths
+	 * are removed.
+	 *
+	 * @param joined
+	 *            Whether each path is to be joined onto the one before it. Each joined path must
+	 *            start a new contour, see startsContour().
+	 * @return The new index of each path.
+	 */
+	int[] join(final boolean[] joined) {
+		final int[] index = new int[pathCount];
+		int count = 0;
+		for (int i = 0; i < pathCount; i++) {
+			if (joined[i]) {
+				index[i] = count - 1;
+			}
+			else {
+				pathVerbStart[count] = pathVerbStart[i];
+				pathCoordStart[count] = pathCoordStart[i];
+				index[i] = count++;
+			}
+		}
+		pathCount = count;
+		return index;
+	}
+
+
+	void lineTo(final float x, final float y) {
+		addVerb(VERB_LINE);
+		addCoords(x, y);
+	}
+
+
+	void moveTo(final float x, final float y) {
+		addVerb(VERB_MOVE);
+		addCoords(x, y);
+	}
+
+
+	/**
+	 * Replace the contents of this object with data read from a compiled document. The arrays are
+	 * taken over, not copied.
+	 */
+	void set(final byte[] verbs, final float[] coords, final int[] pathVerbStart, final int[] pathCoordStart) {
+		this.verbs = verbs;
+		this.verbCount = verbs.length;
+		this.coords = coords;
+		this.coordCount = coords.length;
+		this.pathVerbStart = pathVerbStart;
+		this.pathCoordStart = pathCoordStart;
+		this.pathCount = pathVerbStart.length;
+	}
+
+
+	/**
+	 * @return Whether a path starts with a move, rect or circle, so that it is drawn the same when
+	 *         it is added to the end of another path.
+	 */
+	boolean startsContour(final int index) {
+		final int verbStart = pathVerbStart[index];
+		if (verbStart == (index + 1 < pathCount ? pathVerbStart[index + 1] : verbCount)) {
+			return false;
+		}
+		final byte verb = verbs[verbStart];
+		return verb == VERB_MOVE || verb == VERB_RECT || verb == VERB_CIRCLE;
+	}
+
+
+	/**
+	 * Transform the coordinates of the last path by an affine matrix (see SVGTransform), so that
+	 * it can be painted without the matrix. Lines and curves can be transformed by any matrix. A
+	 * rect or circle keeps its own verb, so it can only be scaled by positive factors (a circle by
+	 * the same factor in x and y) and moved.
+	 *
+	 * @return Whether the path was transformed. If not, it is left as it was.
+	 */
+	boolean transformLastPath(final float[] m) {
+		final int verbStart = pathVerbStart[pathCount - 1];
+		final boolean scaleOnly = m[SVGTransform.MSKEW_X] == 0 && m[SVGTransform.MSKEW_Y] == 0
+				&& m[SVGTransform.MSCALE_X] > 0 && m[SVGTransform.MSCALE_Y] > 0;
+		for (int vi = verbStart; vi < verbCount; vi++) {
+			if (verbs[vi] == VERB_RECT && !scaleOnly
+					|| verbs[vi] == VERB_CIRCLE && !(scaleOnly && m[SVGTransform.MSCALE_X] == m[SVGTransform.MSCALE_Y])) {
+				return false;
+			}
+		}
+
+		final float[] c = coords;
+		int ci = pathCoordStart[pathCount - 1];
+		for (int vi = verbStart; vi < verbCount; vi++) {
+			int points;
+			switch (verbs[vi]) {
+				case VERB_CUBIC:
+					points = 3;
+					break;
+
+				case VERB_CLOSE:
+					points = 0;
+					break;
+
+				case VERB_RECT:
+					points = 2;
+					break;
+
+				default:
+					points = 1;
+					break;
+			}
+			for (; points > 0; points--, ci += 2) {
+				final float x = c[ci];
+				final float y = c[ci + 1];
+				c[ci] = m[SVGTransform.MSCALE_X] * x + m[SVGTransform.MSKEW_X] * y + m[SVGTransform.MTRANS_X];
+				c[ci + 1] = m[SVGTransform.MSKEW_Y] * x + m[SVGTransform.MSCALE_Y] * y + m[SVGTransform.MTRANS_Y];
+			}
+			if (verbs[vi] == VERB_CIRCLE) {
+				c[ci++] *= m[SVGTransform.MSCALE_X];
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Create the android.graphics.Path for the path with the given index.
+	 */
+	Path toPath(final int index) {
+		final Path p = new Path();
+		final int verbEnd = index + 1 < pathCount ? pathVerbStart[index + 1] : verbCount;
+		final float[] c = coords;
+		int ci = pathCoordStart[index];
+
+		for (int vi = pathVerbStart[index]; vi < verbEnd; vi++) {
+			switch (verbs[vi]) {
+				case VERB_MOVE:
+					p.moveTo(c[ci], c[ci + 1]);
+					ci += 2;
+					break;
+
+				case VERB_LINE:
+					p.lineTo(c[ci], c[ci + 1]);
+					ci += 2;
+					break;
+
+				case VERB_CUBIC:
+					p.cubicTo(c[ci], c[ci + 1], c[ci + 2], c[ci + 3], c[ci + 4], c[ci + 5]);
+					ci += 6;
+					break;
+
+				case VERB_CLOSE:
+					p.close();
+					break;
+
+				case VERB_RECT:
+					p.addRect(c[ci], c[ci + 1], c[ci + 2], c[ci + 3], Path.Direction.CW);
+					ci += 4;
+					break;
+
+				case VERB_CIRCLE:
+					p.addCircle(c[ci], c[ci + 1], c[ci + 2], Path.Direction.CW);
+					ci += 3;
+					break;
+			}
+		}
+		return p;
+	}
+
+}
@@ -0,0 +1,231 @@
+package com.trevorpage.tpsvg;
+
+
+/**
+ * Single pass scanner for the 'd' attribute of a 'path' element and the 'points' attribute of a
+ * 'polygon' element. It replaces the old regular expression based PathTokenizer and produces
+ * exactly the same token stream, but works directly on the characters of the attribute value:
+ * no Pattern, Matcher or intermediate String is created per element or per number.
+ * The token rules are:
+ * 1. A number is an optional sign, digits, an optional fraction and an optional exponent. A second
+ * '.' or a '-' ends the current number and starts the next one, so "1.5.5-2" is three numbers.
+ * 2. Individual letters (a-zA-Z_) are tokenized as single characters.
+ * 3. Whitespace, commas, '+' and parentheses are separators. Any other character is skipped.
+ * One instance is intended to be reused for every element of a parse.
+ */
+final class SVGPathScanner {
+
+	static final int			TOK_END			= 5;
+
+
+	static final int			TOK_LETTER		= 3;
+
+
+	static final int			TOK_NUMBER		= 1;
+
+
+	/**
+	 * Maximum number of significant digits accumulated into the mantissa. Any further digits
+	 * are beyond float precision and only adjust the decimal exponent.
+	 */
+	private static final int	MAX_DIGITS		= 18;
+
+
+	/**
+	 * Powers of ten that are exactly representable as a double.
+	 */
+	private static final double[]	POWERS_OF_TEN	= {
+												1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+												1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+												1e21, 1e22
+												};
+
+
+	int							currentTok		= TOK_END;
+
+
+	private String				mData;
+
+
+	private int					mLength;
+
+
+	private int					mPos;
+
+
+	char						tokenChar;
+
+
+	float						tokenF;
+
+
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
+
+	private static boolean isLetter(final char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+	}
+
+
+	/**
+	 * Advance to the next token. When the token is TOK_NUMBER its value is in tokenF, when it is
+	 * TOK_LETTER the letter is in tokenChar. Neither is modified for any other token.
+	 *
+	 * @return The new current token, which is also stored in currentTok.
+	 */
+	int nextToken() {
+		final String data = mData;
+		final int length = mLength;
+		int pos = mPos;
+
+		currentTok = TOK_END;
+		while (pos < length) {
+			final char c = data.charAt(pos);
+
+			if (isDigit(c) || c == '.' && pos + 1 < length && isDigit(data.charAt(pos + 1))) {
+				mPos = pos;
+				scanNumber();
+				currentTok = TOK_NUMBER;
+				return currentTok;
+			}
+			else if (c == '-' || c == '+') {
+				// A sign only counts if it belongs to a number, otherwise it is skipped like the
+				// regular expression used to do.
+				if (pos + 1 < length) {
+					final char n = data.charAt(pos + 1);
+					if (isDigit(n) || n == '.' && pos + 2 < length && isDigit(data.charAt(pos + 2))) {
+						mPos = pos;
+						scanNumber();
+						currentTok = TOK_NUMBER;
+						return currentTok;
+					}
+				}
+				pos++;
+			}
+			else if (isLetter(c)) {
+				tokenChar = c;
+				mPos = pos + 1;
+				currentTok = TOK_LETTER;
+				return currentTok;
+			}
+			else {
+				pos++;
+			}
+		}
+
+		mPos = length;
+		return currentTok;
+	}
+
+
+	/**
+	 * Start scanning a new attribute value. A null value produces TOK_END straight away.
+	 *
+	 * @return The first token of the value.
+	 */
+	int reset(final String data) {
+		mData = data;
+		mLength = null == data ? 0 : data.length();
+		mPos = 0;
+		return nextToken();
+	}
+
+
+	/**
+	 * Scan the number that starts at mPos into tokenF and leave mPos on the first character after
+	 * it. The caller has already established that a number starts at mPos.
+	 */
+	private void scanNumber() {
+		final String data = mData;
+		final int length = mLength;
+		final int start = mPos;
+		int pos = start;
+
+		boolean negative = false;
+		char c = data.charAt(pos);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+
+		// Integer part. Leading zeros are not significant.
+		while (pos < length && isDigit(c = data.charAt(pos))) {
+			if (digits < MAX_DIGITS) {
+				if (mantissa != 0 || c != '0') {
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+				}
+			}
+			else {
+				exponent++;
+			}
+			pos++;
+		}
+
+		// Fraction part. Only taken when at least one digit follows the point, so that "1." is
+		// the number 1 followed by a skipped '.', as before.
+		if (pos + 1 < length && data.charAt(pos) == '.' && isDigit(data.charAt(pos + 1))) {
+			pos++;
+			while (pos < length && isDigit(c = data.charAt(pos))) {
+				if (digits < MAX_DIGITS) {
+					if (mantissa != 0 || c != '0') {
+						mantissa = mantissa * 10 + (c - '0');
+						digits++;
+					}
+					exponent--;
+				}
+				pos++;
+			}
+		}
+
+		// Exponent part. Only taken when it is complete, otherwise the 'e' is left to be
+		// tokenized as a letter.
+		if (pos < length && ((c = data.charAt(pos)) == 'e' || c == 'E')) {
+			int expPos = pos + 1;
+			boolean expNegative = false;
+			if (expPos < length && ((c = data.charAt(expPos)) == '-' || c == '+')) {
+				expNegative = c == '-';
+				expPos++;
+			}
+			if (expPos < length && isDigit(data.charAt(expPos))) {
+				int expValue = 0;
+				while (expPos < length && isDigit(c = data.charAt(expPos))) {
+					if (expValue < 10000) {
+						expValue = expValue * 10 + (c - '0');
+					}
+					expPos++;
+				}
+				exponent += expNegative ? -expValue : expValue;
+				pos = expPos;
+			}
+		}
+
+		mPos = pos;
+
+		double value;
+		if (mantissa == 0) {
+			value = 0d;
+		}
+		else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+			value = mantissa * POWERS_OF_TEN[exponent];
+		}
+		else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+			value = mantissa / POWERS_OF_TEN[-exponent];
+		}
+		else {
+			// Rare: the value needs more than an exactly representable power of ten. Let the
+			// platform do the correctly rounded conversion.
+			tokenF = Float.parseFloat(data.substring(start, pos));
+			return;
+		}
+
+		tokenF = (float) (negative ? -value : value);
+	}
+
+}
@@ -0,0 +1,277 @@
+package com.trevorpage.tpsvg;
+
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+import android.content.Context;
+
+
+/**
+ * A batch of raw resources being parsed in the background, as started by
+ * SVGParserFactory.preload(). Each image is put in the factory's cache as soon as it is ready, so
+ * SVGParserFactory.create() returns it without parsing. The factory's cache only holds images
+ * weakly, and only up to the svg_factoryCacheLimit integer resource (10 by default), so the task
+ * also keeps every image it loaded: keep the task for as long as the images should stay loaded, or
+ * take them with get(int).
+ * As a Future, the task is done when every resource has been loaded, or it was cancelled.
+ * Resources that are already queued can be given a new priority, for example when the view that
+ * shows them comes on screen.
+ */
+public class SVGPreloadTask implements Future<Void> {
+
+	public interface Listener {
+		/**
+		 * Called on an executor thread after a resource has been loaded.
+		 */
+		void onPreloaded(int raw_resource, SVGParserRenderer image);
+
+
+		/**
+		 * Called on an executor thread, or the thread that cancelled the task, once no more
+		 * resources will be loaded.
+		 */
+		void onPreloadFinished(SVGPreloadTask task);
+	}
+
+
+	private static final class Entry implements Comparable<Entry> {
+		final int	order;
+
+
+		int			priority;
+
+
+		final int	resource;
+
+
+		Entry(final int resource, final int priority, final int order) {
+			this.resource = resource;
+			this.priority = priority;
+			this.order = order;
+		}
+
+
+		public int compareTo(final Entry other) {
+			// Highest priority first, then in the order given.
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
+			}
+			return order - other.order;
+		}
+	}
+
+
+	private boolean										mCancelled;
+
+
+	private final Context								mContext;
+
+
+	private RuntimeException							mError;
+
+
+	private final HashMap<Integer, SVGParserRenderer>	mImages		= new HashMap<Integer, SVGParserRenderer>();
+
+
+	private final Listener								mListener;
+
+
+	private final PriorityQueue<Entry>					mQueue		= new PriorityQueue<Entry>();
+
+
+	// Resources not loaded yet, whether queued or being parsed.
+	private int											mRemaining;
+
+
+	private final Runnable								mWorker		= new Runnable() {
+																		public void run() {
+																			work();
+																		}
+																	};
+
+
+	SVGPreloadTask(final Context context, final int[] raw_resources, final int[] priorities, final Listener listener) {
+		if (raw_resources.length != priorities.length) {
+			throw new IllegalArgumentException("One priority is needed for each resource");
+		}
+		mContext = context;
+		mListener = listener;
+		for (int i = 0; i < raw_resources.length; i++) {
+			mQueue.add(new Entry(raw_resources[i], priorities[i], i));
+		}
+		mRemaining = raw_resources.length;
+	}
+
+
+	/**
+	 * Stop loading. Resources that are being parsed at the time are still finished and cached, but
+	 * no others are started.
+	 *
+	 * @return false if the task had already finished.
+	 */
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		final boolean finished;
+		synchronized (this) {
+			if (mCancelled || mRemaining == 0) {
+				return false;
+			}
+			mCancelled = true;
+			mRemaining -= mQueue.size();
+			mQueue.clear();
+			finished = mRemaining == 0;
+			notifyAll();
+		}
+		if (finished && null != mListener) {
+			mListener.onPreloadFinished(this);
+		}
+		return true;
+	}
+
+
+	private void finish(final Entry entry, final SVGParserRenderer image, final RuntimeException error) {
+		final boolean finished;
+		synchronized (this) {
+			if (null != image) {
+				mImages.put(Integer.valueOf(entry.resource), image);
+			}
+			if (null != error && null == mError) {
+				mError = error;
+			}
+			finished = --mRemaining == 0;
+			if (finished) {
+				notifyAll();
+			}
+		}
+		if (null != mListener) {
+			if (null != image) {
+				mListener.onPreloaded(entry.resource, image);
+			}
+			if (finished) {
+				mListener.onPreloadFinished(this);
+			}
+		}
+	}
+
+
+	/**
+	 * Wait until every resource has been loaded.
+	 *
+	 * @throws ExecutionException
+	 *             If a resource could not be loaded. The others are still loaded.
+	 */
+	public synchronized Void get() throws InterruptedException, ExecutionException {
+		while (mRemaining > 0 && !mCancelled) {
+			wait();
+		}
+		return result();
+	}
+
+
+	/**
+	 * @return The image of a resource that has been loaded by this task, or null.
+	 */
+	public synchronized SVGParserRenderer get(final int raw_resource) {
+		return mImages.get(Integer.valueOf(raw_resource));
+	}
+
+
+	public synchronized Void get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		final long end = System.nanoTime() + unit.toNanos(timeout);
+		while (mRemaining > 0 && !mCancelled) {
+			final long left = end - System.nanoTime();
+			if (left <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return result();
+	}
+
+
+	public synchronized boolean isCancelled() {
+		return mCancelled;
+	}
+
+
+	public synchronized boolean isDone() {
+		return mCancelled || mRemaining == 0;
+	}
+
+
+	private Void result() throws ExecutionException {
+		if (mCancelled) {
+			throw new CancellationException();
+		}
+		if (null != mError) {
+			throw new ExecutionException(mError);
+		}
+		return null;
+	}
+
+
+	/**
+	 * Change the priority of a resource that is still waiting to be parsed. A higher value is
+	 * parsed sooner.
+	 */
+	public synchronized void setPriority(final int raw_resource, final int priority) {
+		final Iterator<Entry> it = mQueue.iterator();
+		while (it.hasNext()) {
+			final Entry entry = it.next();
+			if (entry.resource == raw_resource) {
+				// The queue only orders an entry when it is added.
+				it.remove();
+				entry.priority = priority;
+				mQueue.add(entry);
+				return;
+			}
+		}
+	}
+
+
+	void start(final Executor executor, final int parallelism) {
+		final int workers = Math.min(parallelism, mQueue.size());
+		for (int i = 0; i < workers; i++) {
+			executor.execute(mWorker);
+		}
+		if (workers == 0 && null != mListener) {
+			mListener.onPreloadFinished(this);
+		}
+	}
+
+
+	/**
+	 * Body of each of the task's runnables: load resources, highest priority first, until there are
+	 * none left.
+	 */
+	private void work() {
+		while (true) {
+			final Entry entry;
+			synchronized (this) {
+				entry = mQueue.poll();
+			}
+			if (null == entry) {
+				return;
+			}
+
+			SVGParserRenderer image = null;
+			RuntimeException error = null;
+			try {
+				image = SVGParserFactory.create(mContext, entry.resource);
+			}
+			catch (final RuntimeException e) {
+				error = e;
+			}
+			finish(entry, image, error);
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+
+/**
+ * Front end that reads a document with an XmlPullParser and passes it to the SAX callbacks of a
+ * DefaultHandler, in place of a SAXParser. See SVGParserRenderer.setPullParser().
+ * Each thread creates one parser and reuses it for every document it parses. Text is handed over
+ * as a range of the parser's own buffer, and the attributes are read straight from the parser, so
+ * nothing is copied on the way.
+ */
+final class SVGPullParser {
+	private static final ThreadLocal<XmlPullParser>	parsers	= new ThreadLocal<XmlPullParser>();
+
+
+	private SVGPullParser() {
+
+	}
+
+
+	/**
+	 * @return Whether there is an XmlPullParser implementation to parse with.
+	 */
+	static boolean isAvailable() {
+		return null != obtain();
+	}
+
+
+	/**
+	 * @return This thread's parser, or null if there is no XmlPullParser implementation, as on the
+	 *         build machine where android.jar only has stubs.
+	 */
+	private static XmlPullParser obtain() {
+		XmlPullParser parser = parsers.get();
+		if (null == parser) {
+			try {
+				final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+				factory.setNamespaceAware(true);
+				parser = factory.newPullParser();
+			}
+			catch (final Exception e) {
+				return null;
+			}
+			parsers.set(parser);
+		}
+		return parser;
+	}
+
+
+	/**
+	 * Parse a document, calling the handler's startElement(), endElement() and characters() as a
+	 * namespace aware SAXParser would.
+	 *
+	 * @return false, without reading the stream, if there is no XmlPullParser implementation.
+	 */
+	static boolean parse(final InputStream in, final DefaultHandler handler) throws XmlPullParserException, IOException,
+			SAXException {
+		final XmlPullParser parser = obtain();
+		if (null == parser) {
+			return false;
+		}
+
+		final PullAttributes attributes = new PullAttributes(parser);
+		final int[] range = new int[2];
+		parser.setInput(in, null);
+		try {
+			handler.startDocument();
+			int event;
+			while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				switch (event) {
+					case XmlPullParser.START_TAG:
+						handler.startElement(parser.getNamespace(), parser.getName(), qName(parser), attributes);
+						break;
+
+					case XmlPullParser.END_TAG:
+						handler.endElement(parser.getNamespace(), parser.getName(), qName(parser));
+						break;
+
+					case XmlPullParser.TEXT: {
+						final char[] ch = parser.getTextCharacters(range);
+						handler.characters(ch, range[0], range[1]);
+					}
+						break;
+				}
+			}
+			handler.endDocument();
+		}
+		finally {
+			// Let go of the stream, the parser is kept for the thread's next document.
+			parser.setInput((Reader) null);
+		}
+		return true;
+	}
+
+
+	private static String qName(final XmlPullParser parser) {
+		final String prefix = parser.getPrefix();
+		return null == prefix ? parser.getName() : prefix + ':' + parser.getName();
+	}
+
+}
+
+
+/**
+ * The attributes of the current start tag of an XmlPullParser, as SAX Attributes.
+ */
+final class PullAttributes implements Attributes {
+	private final XmlPullParser	mParser;
+
+
+	PullAttributes(final XmlPullParser parser) {
+		mParser = parser;
+	}
+
+
+	public int getIndex(final String qName) {
+		for (int i = mParser.getAttributeCount() - 1; i >= 0; i--) {
+			if (getQName(i).equals(qName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	public int getIndex(final String uri, final String localName) {
+		for (int i = mParser.getAttributeCount() - 1; i >= 0; i--) {
+			if (mParser.getAttributeName(i).equals(localName) && getURI(i).equals(uri)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	public int getLength() {
+		return mParser.getAttributeCount();
+	}
+
+
+	public String getLocalName(final int index) {
+		return mParser.getAttributeName(index);
+	}
+
+
+	public String getQName(final int index) {
+		final String prefix = mParser.getAttributePrefix(index);
+		return null == prefix ? mParser.getAttributeName(index) : prefix + ':' + mParser.getAttributeName(index);
+	}
+
+
+	public String getType(final int index) {
+		return mParser.getAttributeType(index);
+	}
+
+
+	public String getType(final String qName) {
+		final int index = getIndex(qName);
+		return index < 0 ? null : getType(index);
+	}
+
+
+	public String getType(final String uri, final String localName) {
+		final int index = getIndex(uri, localName);
+		return index < 0 ? null : getType(index);
+	}
+
+
+	public String getURI(final int index) {
+		final String uri = mParser.getAttributeNamespace(index);
+		return null == uri ? "" : uri;
+	}
+
+
+	public String getValue(final int index) {
+		return mParser.getAttributeValue(index);
+	}
+
+
+	public String getValue(final String qName) {
+		final int index = getIndex(qName);
+		return index < 0 ? null : getValue(index);
+	}
+
+
+	public String getValue(final String uri, final String localName) {
+		final int index = getIndex(uri, localName);
+		return index < 0 ? null : getValue(index);
+	}
+
+}
@@ -0,0 +1,179 @@
+package com.trevorpage.tpsvg;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+
+
+/**
+ * Process wide cache of rendered images, shared by the SVGViews that show the same image at the
+ * same size without a controller, such as the rows of a list. Each bitmap is reference counted
+ * and stays cached while any view uses it. Bitmaps that are no longer used are kept for reuse,
+ * least recently used first out, for as long as the cache is within its byte budget.
+ * Only used from the UI thread.
+ */
+public final class SVGRasterCache {
+
+	/**
+	 * A cached bitmap. Also its own key: images are told apart by identity, as each parsed
+	 * document is a separate SVGParserRenderer (SVGParserFactory shares them per resource).
+	 */
+	static final class Entry {
+		Bitmap							bitmap;
+
+
+		int								bytes;
+
+
+		final boolean					fill;
+
+
+		final int						height;
+
+
+		final SVGParserRenderer			image;
+
+
+		// Whether the bitmap has been painted.
+		boolean							painted;
+
+
+		int								refs;
+
+
+		final String					subtree;
+
+
+		final int						width;
+
+
+		Entry(final SVGParserRenderer image, final int width, final int height, final boolean fill, final String subtree) {
+			this.image = image;
+			this.width = width;
+			this.height = height;
+			this.fill = fill;
+			this.subtree = subtree;
+		}
+
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Entry)) {
+				return false;
+			}
+			final Entry other = (Entry) o;
+			return image == other.image && width == other.width && height == other.height && fill == other.fill
+					&& (null == subtree ? null == other.subtree : subtree.equals(other.subtree));
+		}
+
+
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(image);
+			hash = hash * 31 + width;
+			hash = hash * 31 + height;
+			hash = hash * 31 + (fill ? 1 : 0);
+			hash = hash * 31 + (null == subtree ? 0 : subtree.hashCode());
+			return hash;
+		}
+	}
+
+
+	private static final LinkedHashMap<Entry, Entry>	entries		= new LinkedHashMap<Entry, Entry>(16, 0.75f, true);
+
+
+	// -1 until set, or initialised from the memory class on first use.
+	private static int									maxBytes	= -1;
+
+
+	private static int									usedBytes	= 0;
+
+
+	private SVGRasterCache() {
+
+	}
+
+
+	/**
+	 * Get the bitmap of an image at a size, creating it if it is not cached. A new bitmap is blank:
+	 * the caller paints it and sets its painted flag. Each call must be paired with a release().
+	 */
+	static Entry acquire(final Context context, final SVGParserRenderer image, final int width, final int height,
+			final boolean fill, final String subtree) {
+		if (maxBytes < 0) {
+			// Get memory class of this device, exceeding this amount will throw an OutOfMemory exception.
+			final int memClass = ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
+
+			// Use 1/16th of the available memory, the same again as SVGParserFactory's cache.
+			maxBytes = 1024 * 1024 * memClass / 16;
+		}
+
+		final Entry key = new Entry(image, width, height, fill, subtree);
+		Entry entry = entries.get(key);
+		if (null == entry) {
+			entry = key;
+			entry.bitmap = SVGBitmapPool.acquire(width, height);
+			entry.bytes = entry.bitmap.getRowBytes() * height;
+			entries.put(entry, entry);
+			usedBytes += entry.bytes;
+		}
+		entry.refs++;
+		trim(maxBytes);
+		return entry;
+	}
+
+
+	/**
+	 * @return The number of bytes of bitmaps in the cache, whether in use or not.
+	 */
+	public static int getSize() {
+		return usedBytes;
+	}
+
+
+	static void release(final Entry entry) {
+		entry.refs--;
+		trim(maxBytes);
+	}
+
+
+	/**
+	 * Set the byte budget of the cache. Bitmaps that are in use are never evicted, so the cache
+	 * can be larger while many different ones are shown at once. By default it is 1/16th of the
+	 * application's memory class.
+	 */
+	public static void setMaxSize(final int bytes) {
+		maxBytes = bytes;
+		trim(maxBytes);
+	}
+
+
+	/**
+	 * Evict every bitmap that no view is using, for example from onTrimMemory() or onLowMemory().
+	 * SVGBitmapPool is trimmed as well.
+	 */
+	public static void trimMemory() {
+		trim(0);
+		SVGBitmapPool.trimMemory();
+	}
+
+
+	private static void trim(final int bytes) {
+		final Iterator<Entry> it = entries.keySet().iterator();
+		while (usedBytes > bytes && it.hasNext()) {
+			final Entry entry = it.next();
+			if (entry.refs == 0) {
+				it.remove();
+				usedBytes -= entry.bytes;
+				SVGBitmapPool.release(entry.bitmap);
+				entry.bitmap = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.trevorpage.tpsvg;
+
+
+/**
+ * Parse time transformation matrix arithmetic. A matrix is held as a float[9] laid out exactly
+ * like the values of android.graphics.Matrix (see Matrix.getValues()), so that it can be turned
+ * into a Matrix with setValues() when the image is prepared for rendering. Keeping the parser free
+ * of Matrix objects means the compiled document is plain data that can be serialized, and that
+ * parsing does not need the Android graphics library at all.
+ * The operations follow the semantics of the Matrix methods with the same names.
+ */
+final class SVGTransform {
+
+	static final int	MPERSP_0	= 6;
+
+
+	static final int	MPERSP_1	= 7;
+
+
+	static final int	MPERSP_2	= 8;
+
+
+	static final int	MSCALE_X	= 0;
+
+
+	static final int	MSCALE_Y	= 4;
+
+
+	static final int	MSKEW_X		= 1;
+
+
+	static final int	MSKEW_Y		= 3;
+
+
+	static final int	MTRANS_X	= 2;
+
+
+	static final int	MTRANS_Y	= 5;
+
+
+	// Same threshold Skia uses to snap the sine and cosine of a rotation to exact values.
+	private static final float	NEARLY_ZERO	= 1f / (1 << 12);
+
+
+	private SVGTransform() {
+
+	}
+
+
+	static float[] identity() {
+		final float[] m = new float[9];
+		m[MSCALE_X] = 1;
+		m[MSCALE_Y] = 1;
+		m[MPERSP_2] = 1;
+		return m;
+	}
+
+
+	static boolean isIdentity(final float[] m) {
+		return m[MSCALE_X] == 1 && m[MSKEW_X] == 0 && m[MTRANS_X] == 0
+				&& m[MSKEW_Y] == 0 && m[MSCALE_Y] == 1 && m[MTRANS_Y] == 0
+				&& m[MPERSP_0] == 0 && m[MPERSP_1] == 0 && m[MPERSP_2] == 1;
+	}
+
+
+	/**
+	 * m = other * m
+	 */
+	static void postConcat(final float[] m, final float[] other) {
+		final float a0 = m[0], a1 = m[1], a2 = m[2];
+		final float a3 = m[3], a4 = m[4], a5 = m[5];
+		final float a6 = m[6], a7 = m[7], a8 = m[8];
+
+		m[0] = other[0] * a0 + other[1] * a3 + other[2] * a6;
+		m[1] = other[0] * a1 + other[1] * a4 + other[2] * a7;
+		m[2] = other[0] * a2 + other[1] * a5 + other[2] * a8;
+		m[3] = other[3] * a0 + other[4] * a3 + other[5] * a6;
+		m[4] = other[3] * a1 + other[4] * a4 + other[5] * a7;
+		m[5] = other[3] * a2 + other[4] * a5 + other[5] * a8;
+		m[6] = other[6] * a0 + other[7] * a3 + other[8] * a6;
+		m[7] = other[6] * a1 + other[7] * a4 + other[8] * a7;
+		m[8] = other[6] * a2 + other[7] * a5 + other[8] * a8;
+	}
+
+
+	/**
+	 * m = R(degrees) * m
+	 */
+	static void postRotate(final float[] m, final float degrees) {
+		final double radians = Math.toRadians(degrees);
+		float sin = (float) Math.sin(radians);
+		float cos = (float) Math.cos(radians);
+		if (Math.abs(sin) <= NEARLY_ZERO) {
+			sin = 0;
+		}
+		if (Math.abs(cos) <= NEARLY_ZERO) {
+			cos = 0;
+		}
+		final float[] r = identity();
+		r[MSCALE_X] = cos;
+		r[MSKEW_X] = -sin;
+		r[MSKEW_Y] = sin;
+		r[MSCALE_Y] = cos;
+		postConcat(m, r);
+	}
+
+
+	/**
+	 * m = T(dx, dy) * m
+	 */
+	static void postTranslate(final float[] m, final float dx, final float dy) {
+		m[MSCALE_X] += dx * m[MPERSP_0];
+		m[MSKEW_X] += dx * m[MPERSP_1];
+		m[MTRANS_X] += dx * m[MPERSP_2];
+		m[MSKEW_Y] += dy * m[MPERSP_0];
+		m[MSCALE_Y] += dy * m[MPERSP_1];
+		m[MTRANS_Y] += dy * m[MPERSP_2];
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.trevorpage.tpsvg;
+
+
+import java.util.HashMap;
+
+
+import android.content.Context;
+import android.graphics.Typeface;
+
+
+/**
+ * Process wide cache of the Typefaces that font-family names are mapped to. Each font is loaded
+ * from the assets once, however many images and text elements use it, and a font that is not in
+ * the assets is only looked for once. Fonts are loaded the first time they are needed, or
+ * beforehand with preload(). The cache can be used from any thread.
+ */
+public final class SVGTypefaceCache {
+	private static final String						ASSETS_FONTS_ROOT_DIRECTORY	= "fonts";
+
+
+	// Cached in place of a font that could not be loaded.
+	private static final Object						NOT_FOUND					= new Object();
+
+
+	// Typeface, or NOT_FOUND, by asset path.
+	private static final HashMap<String, Object>	typefaces					= new HashMap<String, Object>();
+
+
+	private SVGTypefaceCache() {
+
+	}
+
+
+	/**
+	 * The fonts in the assets fonts directory need to be lowercase. The actual font looked for
+	 * will be fontFamilyName appended with .ttf. If the font name contains space characters, the
+	 * corresponding characters in the filename of the assets font should be underscores.
+	 */
+	private static String assetPath(final String fontFamilyName) {
+		return ASSETS_FONTS_ROOT_DIRECTORY + "/" + fontFamilyName.replace(' ', '_').toLowerCase() + ".ttf";
+	}
+
+
+	/**
+	 * Forget every font, loaded or not found.
+	 */
+	public static synchronized void clear() {
+		typefaces.clear();
+	}
+
+
+	/**
+	 * Forget one font, so that it is looked for in the assets again the next time it is needed.
+	 */
+	public static synchronized void evict(final String fontFamilyName) {
+		typefaces.remove(assetPath(fontFamilyName));
+	}
+
+
+	/**
+	 * Obtain a Typeface from the assets fonts directory for the given font-family name.
+	 *
+	 * @param fontFamilyName
+	 *            Font name. Will be made lowercase.
+	 * @return A Typeface, or null if not found in assets.
+	 */
+	public static Typeface get(final Context context, final String fontFamilyName) {
+		if (null == context || null == fontFamilyName) {
+			return null;
+		}
+		final String path = assetPath(fontFamilyName);
+		Object cached;
+		synchronized (SVGTypefaceCache.class) {
+			cached = typefaces.get(path);
+		}
+
+		if (null == cached) {
+			// Loaded outside of the lock, so that one slow font does not hold up every parse. Two
+			// threads may load the same font at once; the first one to finish is kept.
+			try {
+				cached = Typeface.createFromAsset(context.getAssets(), path);
+			}
+			catch (final Exception e) {
+				cached = NOT_FOUND;
+			}
+			if (null == cached) {
+				cached = NOT_FOUND;
+			}
+			synchronized (SVGTypefaceCache.class) {
+				final Object other = typefaces.get(path);
+				if (null != other) {
+					cached = other;
+				}
+				else {
+					typefaces.put(path, cached);
+				}
+			}
+		}
+
+		return cached == NOT_FOUND ? null : (Typeface) cached;
+	}
+
+
+	/**
+	 * Load fonts ahead of the images that use them, for example on a background thread at start
+	 * up.
+	 */
+	public static void preload(final Context context, final String... fontFamilyNames) {
+		for (final String name : fontFamilyNames) {
+			get(context, name);
+		}
+	}
+
+}
@@ -1,6 +1,14 @@
 package com.trevorpage.tpsvg;
 
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
@@ -9,6 +17,9 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.View;
 
@@ -18,6 +29,40 @@ public class SVGView extends View {
 	private static final String	LOGTAG	= SVGView.class.getSimpleName();
 
 
+	private static Executor		sLoadExecutor;
+
+
+	private static Handler		sMainHandler;
+
+
+	/**
+	 * @return The executor that asynchronous images are loaded on, by default a pool with a
+	 *         thread per processor.
+	 */
+	public static synchronized Executor getLoadExecutor() {
+		if (null == sLoadExecutor) {
+			final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "SVGView loader");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+			sLoadExecutor = pool;
+		}
+		return sLoadExecutor;
+	}
+
+
+	private static synchronized Handler getMainHandler() {
+		if (null == sMainHandler) {
+			sMainHandler = new Handler(Looper.getMainLooper());
+		}
+		return sMainHandler;
+	}
+
+
 	public static Bitmap loadBitmapFromView(final Context context, final int raw_resource) {
 		Bitmap bitmap = null;
 		final SVGView view = new SVGView(context);
@@ -37,14 +82,12 @@ public class SVGView extends View {
 				view.getMeasuredWidth(),
 				view.getMeasuredHeight());
 
-		bitmap = Bitmap.createBitmap(
-				view.getMeasuredWidth(),
-				view.getMeasuredHeight(),
-				Bitmap.Config.ARGB_8888);
+		bitmap = SVGBitmapPool.acquire(view.getMeasuredWidth(), view.getMeasuredHeight());
 
 		final Canvas canvas = new Canvas(bitmap);
 		view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
 		view.draw(canvas);
+		view.releaseSharedRaster();
 		return bitmap;
 	}
 
@@ -55,6 +98,23 @@ public class SVGView extends View {
 	}
 
 
+	/**
+	 * Set the executor that asynchronous images are loaded on, for example to share a pool with
+	 * the rest of the application.
+	 */
+	public static synchronized void setLoadExecutor(final Executor executor) {
+		sLoadExecutor = executor;
+	}
+
+
+	private boolean				mAsync				= false;
+
+
+	// The image's elements that are painted before its dynamic ones (see
+	// SVGParserRenderer.LAYER_DYNAMIC), painted once and kept until mStaticLayersValid is cleared.
+	private Bitmap				mBackgroundBitmap	= null;
+
+
 	private Canvas				mCanvas;
 
 
@@ -70,12 +130,46 @@ public class SVGView extends View {
 	private boolean				mFill				= false;
 
 
+	// As mBackgroundBitmap, the elements painted after the dynamic ones. Null if there are none.
+	private Bitmap				mForegroundBitmap	= null;
+
+
+	// Time the current image was asked for, until its first frame has been drawn. Only recorded
+	// when SVGParserRenderer.LOG_TIMING is set.
+	private long				mFirstFrameStartTime;
+
+
+	// The background load of the image, if one is in progress.
+	private FutureTask<SVGParserRenderer>	mLoad;
+
+
+	// Incremented whenever the image changes, so that a load that is no longer wanted is ignored
+	// when it completes.
+	private int					mLoadGeneration;
+
+
+	private Drawable			mPlaceholder;
+
+
+	// The raw resource shown by the view, or 0 if the image was set directly.
+	private int					mRawResource;
+
+
 	private Bitmap				mRenderBitmap		= null;
 
 
 	private int					mRotation			= 0;
 
 
+	// The bitmap shown while the view has no controller, shared through SVGRasterCache with other
+	// views that show the same image at the same size. mRenderBitmap is not used meanwhile.
+	private SVGRasterCache.Entry	mSharedRaster		= null;
+
+
+	// Whether mBackgroundBitmap and mForegroundBitmap are up to date.
+	private boolean				mStaticLayersValid	= false;
+
+
 	private SVGParserRenderer	mSvgImage			= null;
 
 
@@ -110,6 +204,8 @@ public class SVGView extends View {
 		if (null != attrs) {
 			final TypedArray array = context.obtainStyledAttributes(attrs, R.styleable.SVGView);
 			raw_resource = array.getResourceId(R.styleable.SVGView_android_src, 0);
+			mAsync = array.getBoolean(R.styleable.SVGView_asyncLoad, false);
+			mPlaceholder = array.getDrawable(R.styleable.SVGView_placeholder);
 			array.recycle();
 		}
 
@@ -126,10 +222,25 @@ public class SVGView extends View {
 	}
 
 
+	/**
+	 * Bind the controller to the image. If the image is still being loaded in the background, the
+	 * controller is told about it once it is ready.
+	 */
 	public void bindController(final ITpsvgController controller) {
-		assertValidSvgImage();
+		if (!isLoading()) {
+			assertValidSvgImage();
+		}
 
 		mController = controller;
+		// The controller may animate the image, so it gets its own bitmap.
+		releaseSharedRaster();
+		if (null != mSvgImage) {
+			bindControllerToImage();
+		}
+	}
+
+
+	private void bindControllerToImage() {
 		// TODO: This is potentially going to be done multiple times, once for each child SVGView of the
 		// widget. I question at the moment if / why the controller should be bound to the individual SVGViews
 		// and not directly to the SVGParserRenderer.
@@ -139,6 +250,15 @@ public class SVGView extends View {
 	}
 
 
+	private void cancelLoad() {
+		mLoadGeneration++;
+		if (null != mLoad) {
+			mLoad.cancel(false);
+			mLoad = null;
+		}
+	}
+
+
 	private int chooseDimension(final int mode, final int size) {
 		if (mode == MeasureSpec.AT_MOST || mode == MeasureSpec.EXACTLY) {
 			return size;
@@ -149,6 +269,51 @@ public class SVGView extends View {
 	}
 
 
+	/**
+	 * Draw the view's own bitmap, painting whatever has been invalidated first.
+	 */
+	private void drawRenderBitmap(final Canvas canvas) {
+		if (mRenderBitmap == null) {
+			mRenderBitmap = SVGBitmapPool.acquire(getMeasuredWidth(), getMeasuredHeight());
+			mEntireRedrawNeeded = true;
+			mStaticLayersValid = false;
+			mCanvas = new Canvas(mRenderBitmap);
+			// mCanvas.rotate(degrees, px, py)
+		}
+
+		if (mEntireRedrawNeeded) {
+			mEntireRedrawNeeded = false;
+			mRenderBitmap.eraseColor(android.graphics.Color.TRANSPARENT);
+
+			// hacky rotation idea test
+			/*
+			 * if (getWidth() != getHeight() && mRotation == 1) {
+			 * c.rotate(90, getWidth() / 2, getHeight() / 2);
+			 * c.scale(getWidth() / getHeight(), getHeight() / getWidth(), getWidth() / 2, getHeight() / 2);
+			 * }
+			 */
+
+			if (mSvgImage.hasDynamicLayer()) {
+				// Only the dynamic elements are painted on each frame, between the cached static
+				// layers.
+				if (!mStaticLayersValid) {
+					paintStaticLayers();
+				}
+				mCanvas.drawBitmap(mBackgroundBitmap, 0f, 0f, mDrawPaint);
+				paintLayer(mCanvas, SVGParserRenderer.LAYER_DYNAMIC);
+				if (null != mForegroundBitmap) {
+					mCanvas.drawBitmap(mForegroundBitmap, 0f, 0f, mDrawPaint);
+				}
+			}
+			else {
+				paintLayer(mCanvas, SVGParserRenderer.LAYER_ALL);
+			}
+		}
+
+		canvas.drawBitmap(mRenderBitmap, 0f, 0f, mDrawPaint);
+	}
+
+
 	public Bitmap getBitmap() {
 		// Cache the SVG to a bitmap
 		setDrawingCacheEnabled(true);
@@ -167,6 +332,11 @@ public class SVGView extends View {
 		// Clear drawing cache
 		setDrawingCacheEnabled(false);
 
+		if (null == getWindowToken()) {
+			// Not attached, so onDetachedFromWindow() will not release it.
+			releaseSharedRaster();
+		}
+
 		return bitmap;
 	}
 
@@ -184,6 +354,21 @@ public class SVGView extends View {
 	}
 
 
+	public boolean isAsync() {
+		return mAsync;
+	}
+
+
+	/**
+	 * @return Whether the view is waiting for its image, which is being loaded in the background
+	 *         (or will be when the view is attached again). A synchronous view whose image could
+	 *         not be loaded is not waiting for anything.
+	 */
+	private boolean isLoading() {
+		return mAsync && null == mSvgImage && 0 != mRawResource;
+	}
+
+
 	private void init(final Context context) {
 		setDrawingCacheEnabled(false);
 		mDrawPaint.setAntiAlias(false);
@@ -194,6 +379,8 @@ public class SVGView extends View {
 
 
 	/**
+	 * Redraw the image's dynamic elements, those the controller animates. The rest of the image is
+	 * kept from the previous frame, see invalidateStaticLayers().
 	 * This could be called from non-UI thread.
 	 */
 	public void invalidateBitmap() {
@@ -202,34 +389,101 @@ public class SVGView extends View {
 	}
 
 
+	/**
+	 * Redraw the entire image, including the elements that the controller does not animate. This
+	 * is needed if the controller changes their appearance in some other way, for example through
+	 * a Paint that is shared with an animated element.
+	 * This could be called from non-UI thread.
+	 */
+	public void invalidateStaticLayers() {
+		mStaticLayersValid = false;
+		invalidateBitmap();
+	}
+
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+
+		// A load that was cancelled when the view was detached is started again.
+		if (mAsync && null == mSvgImage && null == mLoad && 0 != mRawResource) {
+			startLoad();
+		}
+	}
+
+
+	@Override
+	protected void onDetachedFromWindow() {
+		if (null != mLoad) {
+			cancelLoad();
+		}
+		// The buffers go back to the pool while the view is off screen, for example while it
+		// waits to be recycled by a list.
+		releaseBitmaps();
+		releaseSharedRaster();
+
+		super.onDetachedFromWindow();
+	}
+
+
 	@Override
 	protected void onDraw(final Canvas canvas) {
+		if (isLoading()) {
+			if (null != mPlaceholder) {
+				mPlaceholder.setBounds(0, 0, getWidth(), getHeight());
+				mPlaceholder.draw(canvas);
+			}
+			return;
+		}
+
 		assertValidSvgImage();
 
-		if (mRenderBitmap == null) {
-			mRenderBitmap = Bitmap.createBitmap(getMeasuredWidth(), getMeasuredHeight(), Bitmap.Config.ARGB_8888);
-			mEntireRedrawNeeded = true;
-			mCanvas = new Canvas(mRenderBitmap);
-			// mCanvas.rotate(degrees, px, py)
+		if (null == mController && !isInEditMode()) {
+			// Nothing can change the image, so the bitmap can be shared with other views.
+			if (null == mSharedRaster) {
+				releaseBitmaps();
+				mSharedRaster = SVGRasterCache.acquire(getContext(), mSvgImage, getMeasuredWidth(), getMeasuredHeight(), mFill, subtree);
+				if (!mSharedRaster.painted) {
+					paintLayer(new Canvas(mSharedRaster.bitmap), SVGParserRenderer.LAYER_ALL);
+					mSharedRaster.painted = true;
+				}
+			}
+			mEntireRedrawNeeded = false;
+			canvas.drawBitmap(mSharedRaster.bitmap, 0f, 0f, mDrawPaint);
+		}
+		else {
+			drawRenderBitmap(canvas);
 		}
 
-		if (mEntireRedrawNeeded) {
-			mEntireRedrawNeeded = false;
-			mRenderBitmap.eraseColor(android.graphics.Color.TRANSPARENT);
-			final Canvas c = new Canvas(mRenderBitmap);
+		if (0 != mFirstFrameStartTime) {
+			if (null != SVGParserRenderer.LOG_TIMING) {
+				final String name = 0 != mRawResource ? getResources().getResourceName(mRawResource) : "image";
+				SVGParserRenderer.LOG_TIMING.logSvgTiming("first frame " + name, SystemClock.uptimeMillis() - mFirstFrameStartTime);
+			}
+			mFirstFrameStartTime = 0;
+		}
+	}
 
-			// hacky rotation idea test
-			/*
-			 * if (getWidth() != getHeight() && mRotation == 1) {
-			 * c.rotate(90, getWidth() / 2, getHeight() / 2);
-			 * c.scale(getWidth() / getHeight(), getHeight() / getWidth(), getWidth() / 2, getHeight() / 2);
-			 * }
-			 */
 
-			mSvgImage.paintImage(c, subtree, this, mController, mFill);
+	private void onLoaded(final int generation, final SVGParserRenderer image) {
+		if (generation != mLoadGeneration) {
+			// The view has been given another image, or detached, since the load was started.
+			return;
+		}
+		mLoad = null;
+		if (null == image) {
+			// The resource could not be loaded. The placeholder stays.
+			return;
 		}
 
-		canvas.drawBitmap(mRenderBitmap, 0f, 0f, mDrawPaint);
+		mSvgImage = image;
+		if (null != mController) {
+			bindControllerToImage();
+		}
+		mEntireRedrawNeeded = true;
+		mStaticLayersValid = false;
+		releaseSharedRaster();
+		invalidate();
 	}
 
 
@@ -255,23 +509,135 @@ public class SVGView extends View {
 
 	@Override
 	protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh) {
-		mRenderBitmap = null;
+		releaseBitmaps();
+		releaseSharedRaster();
 		super.onSizeChanged(w, h, oldw, oldh);
 	}
 
 
+	private void paintLayer(final Canvas canvas, final int layer) {
+		canvas.save();
+		mSvgImage.paintImage(canvas, subtree, this, mController, mFill, layer);
+		canvas.restore();
+	}
+
+
+	/**
+	 * Paint the background and foreground layers into their bitmaps, which are created the first
+	 * time and after a size change.
+	 */
+	private void paintStaticLayers() {
+		final int width = mRenderBitmap.getWidth();
+		final int height = mRenderBitmap.getHeight();
+		if (null == mBackgroundBitmap) {
+			mBackgroundBitmap = SVGBitmapPool.acquire(width, height);
+		}
+		else {
+			mBackgroundBitmap.eraseColor(Color.TRANSPARENT);
+		}
+		paintLayer(new Canvas(mBackgroundBitmap), SVGParserRenderer.LAYER_BACKGROUND);
+
+		if (mSvgImage.hasForegroundLayer()) {
+			if (null == mForegroundBitmap) {
+				mForegroundBitmap = SVGBitmapPool.acquire(width, height);
+			}
+			else {
+				mForegroundBitmap.eraseColor(Color.TRANSPARENT);
+			}
+			paintLayer(new Canvas(mForegroundBitmap), SVGParserRenderer.LAYER_FOREGROUND);
+		}
+		else {
+			SVGBitmapPool.release(mForegroundBitmap);
+			mForegroundBitmap = null;
+		}
+		mStaticLayersValid = true;
+	}
+
+
+	/**
+	 * Give the view's own bitmaps back to SVGBitmapPool. They are acquired again, and the image
+	 * painted in full, on the next frame that needs them.
+	 */
+	private void releaseBitmaps() {
+		SVGBitmapPool.release(mRenderBitmap);
+		SVGBitmapPool.release(mBackgroundBitmap);
+		SVGBitmapPool.release(mForegroundBitmap);
+		mRenderBitmap = null;
+		mBackgroundBitmap = null;
+		mForegroundBitmap = null;
+		mCanvas = null;
+	}
+
+
+	/**
+	 * Stop using the shared bitmap, so that the next frame gets the one that matches the view's
+	 * current image, size and settings.
+	 */
+	private void releaseSharedRaster() {
+		if (null != mSharedRaster) {
+			SVGRasterCache.release(mSharedRaster);
+			mSharedRaster = null;
+		}
+	}
+
+
 	public void setFill(final boolean fill) {
 		mFill = fill;
+		mStaticLayersValid = false;
+		releaseSharedRaster();
+	}
+
+
+	/**
+	 * In asynchronous mode, setImageSvg() returns straight away and the image is parsed on the
+	 * load executor (see setLoadExecutor()). Until it is ready the view draws its placeholder, if
+	 * it has one, and nothing otherwise. An image that is already in SVGParserFactory's cache is
+	 * shown straight away in either mode. It can also be set with the asyncLoad attribute.
+	 */
+	public void setAsync(final boolean async) {
+		mAsync = async;
 	}
 
 
 	public void setImageSvg(final int raw_resource) {
-		final SVGParserRenderer image = SVGParserFactory.create(getContext(), raw_resource);
-		this.setSVGRenderer(image, null);
+		cancelLoad();
+		mRawResource = raw_resource;
+		mFirstFrameStartTime = null != SVGParserRenderer.LOG_TIMING ? SystemClock.uptimeMillis() : 0;
+
+		final SVGParserRenderer image = mAsync
+				? SVGParserFactory.getCached(getContext(), Integer.valueOf(raw_resource))
+				: SVGParserFactory.create(getContext(), raw_resource);
+		if (null != image) {
+			mSvgImage = image;
+			setSubtree(null);
+		}
+		else {
+			// In synchronous mode the resource could not be loaded, so drawing the view or binding a
+			// controller to it throws.
+			mSvgImage = null;
+			setSubtree(null);
+			if (mAsync) {
+				startLoad();
+			}
+		}
+		mEntireRedrawNeeded = true;
+		mStaticLayersValid = false;
+		releaseSharedRaster();
 		this.setBackgroundColor(Color.TRANSPARENT);
 	}
 
 
+	/**
+	 * Set the drawable that is drawn while an image is being loaded in the background.
+	 */
+	public void setPlaceholder(final Drawable placeholder) {
+		mPlaceholder = placeholder;
+		if (isLoading()) {
+			invalidate();
+		}
+	}
+
+
 	/**
 	 * Specify the particular subtree (or 'node') of the original SVG XML file that this view
 	 * shall render. The default is null, which results in the entire SVG image being rendered.
@@ -281,12 +647,44 @@ public class SVGView extends View {
 	@Deprecated
 	public void setSubtree(final String subtreeId) {
 		subtree = subtreeId;
+		mStaticLayersValid = false;
+		releaseSharedRaster();
 	}
 
 
 	@Deprecated
 	public void setSVGRenderer(final SVGParserRenderer image, final String subtreeTagName) {
+		cancelLoad();
+		mRawResource = 0;
 		mSvgImage = image;
 		setSubtree(subtreeTagName);
+		mEntireRedrawNeeded = true;
+	}
+
+
+	private void startLoad() {
+		final int generation = mLoadGeneration;
+		final int raw_resource = mRawResource;
+		final Context context = getContext().getApplicationContext();
+		final Handler handler = getMainHandler();
+
+		mLoad = new FutureTask<SVGParserRenderer>(new Callable<SVGParserRenderer>() {
+			public SVGParserRenderer call() {
+				SVGParserRenderer image = null;
+				try {
+					image = SVGParserFactory.create(context, raw_resource);
+				}
+				finally {
+					final SVGParserRenderer loaded = image;
+					handler.post(new Runnable() {
+						public void run() {
+							onLoaded(generation, loaded);
+						}
+					});
+				}
+				return image;
+			}
+		});
+		getLoadExecutor().execute(mLoad);
 	}
 }
@@ -0,0 +1,223 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+import com.trevorpage.tpsvg.SVGParserRenderer.SvgStyle;
+import com.trevorpage.tpsvg.SVGParserRenderer.Textstring;
+
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+
+/**
+ * Checks that the bytecode made by optimizeBytecode() paints exactly what the bytecode the parser
+ * emits does: the whole image and each of its layers, with and without a controller, and every
+ * subtree in the subtreeJumpMap.
+ */
+public class SVGBytecodeOptimizerTest extends AndroidTestCase {
+
+	/**
+	 * Paints paths without anti-aliasing. The optimizer joins runs of paths that do not overlap
+	 * into one path, and with anti-aliasing a pixel on the edge of two of them can come out
+	 * slightly different when they are painted together.
+	 */
+	private static final class AliasedCanvas extends Canvas {
+		private final Paint	mPaint	= new Paint();
+
+
+		AliasedCanvas(final Bitmap bitmap) {
+			super(bitmap);
+		}
+
+
+		@Override
+		public void drawPath(final Path path, final Paint paint) {
+			mPaint.set(paint);
+			mPaint.setAntiAlias(false);
+			super.drawPath(path, mPaint);
+		}
+	}
+
+
+	/**
+	 * Moves each element, and paints each one twice.
+	 */
+	private static class Controller implements ITpsvgController {
+
+		public boolean animElement(final String id, final int iteration, final Matrix matrix, final Paint stroke, final Paint fill) {
+			matrix.postTranslate(20 * iteration, 10 * iteration);
+			return iteration < 1;
+		}
+
+
+		public boolean animTextElement(final String id, final int iteration, final Matrix matrix, final SvgStyle style,
+				final Textstring text, final float x, final float y) {
+			matrix.postTranslate(5, 5);
+			return false;
+		}
+
+
+		public boolean arcParams(final String id, final Path path, final float startAngle, final float sweepAngle, final RectF bounds) {
+			path.addArc(bounds, startAngle, sweepAngle / 2);
+			return false;
+		}
+
+
+		public void onSVGPrivateData(final String key, final String value) {
+
+		}
+
+
+		public void setSourceDocumentHeight(final int height) {
+
+		}
+
+
+		public void setSourceDocumentWidth(final int width) {
+
+		}
+	}
+
+
+	/**
+	 * Records the id of each element it is called back for.
+	 */
+	private static final class Recorder extends Controller {
+		final List<String>	mIds	= new ArrayList<String>();
+
+
+		@Override
+		public boolean animElement(final String id, final int iteration, final Matrix matrix, final Paint stroke, final Paint fill) {
+			mIds.add(id);
+			return false;
+		}
+	}
+
+
+	private static final int	HEIGHT	= 300;
+
+
+	private static final int[]	LAYERS	= {
+										SVGParserRenderer.LAYER_ALL,
+										SVGParserRenderer.LAYER_BACKGROUND,
+										SVGParserRenderer.LAYER_DYNAMIC,
+										SVGParserRenderer.LAYER_FOREGROUND
+										};
+
+
+	private static final int	WIDTH	= 400;
+
+
+	private Bitmap				mBitmap;
+
+
+	private Canvas				mCanvas;
+
+
+	private final Controller	mController	= new Controller();
+
+
+	private View				mView;
+
+
+	private void assertSamePixels(final String what, final int[] expected, final int[] actual) {
+		for (int i = 0; i < expected.length; i++) {
+			if (expected[i] != actual[i]) {
+				fail(what + ": pixel " + i % WIDTH + "," + i / WIDTH + " is " + Integer.toHexString(actual[i]) + " instead of "
+						+ Integer.toHexString(expected[i]));
+			}
+		}
+	}
+
+
+	private int[] paint(final SVGParserRenderer image, final String subtree, final ITpsvgController controller, final int layer) {
+		mBitmap.eraseColor(Color.TRANSPARENT);
+		final int saveCount = mCanvas.save();
+		image.paintImage(mCanvas, subtree, mView, controller, false, layer);
+		mCanvas.restoreToCount(saveCount);
+		final int[] pixels = new int[WIDTH * HEIGHT];
+		mBitmap.getPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+		return pixels;
+	}
+
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+		mCanvas = new AliasedCanvas(mBitmap);
+		mView = new View(getContext());
+		mView.layout(0, 0, WIDTH, HEIGHT);
+	}
+
+
+	@Override
+	protected void tearDown() throws Exception {
+		mBitmap.recycle();
+		super.tearDown();
+	}
+
+
+	public void testOptimizedBytecodePaintsTheSame() {
+		for (int seed = 0; seed < 6; seed++) {
+			final byte[] document = SVGTestDocuments.generate(seed, 300);
+			final SVGParserRenderer optimized = new SVGParserRenderer(getContext(), new ByteArrayInputStream(document));
+			final SVGParserRenderer plain = new SVGParserRenderer();
+			plain.setOptimizeBytecode(false);
+			plain.parseImageFile(getContext(), new ByteArrayInputStream(document));
+
+			assertTrue("document " + seed + " is optimized", optimized.bytecodeArrSize() < plain.bytecodeArrSize());
+			assertEquals("subtrees of document " + seed, plain.subtreeJumpMap.keySet(), optimized.subtreeJumpMap.keySet());
+
+			for (final int layer : LAYERS) {
+				assertSamePixels("document " + seed + " layer " + layer, paint(plain, null, null, layer),
+						paint(optimized, null, null, layer));
+				assertSamePixels("document " + seed + " layer " + layer + " with a controller", paint(plain, null, mController, layer),
+						paint(optimized, null, mController, layer));
+			}
+
+			final List<String> subtrees = new ArrayList<String>(plain.subtreeJumpMap.keySet());
+			Collections.sort(subtrees);
+			for (final String subtree : subtrees) {
+				assertSamePixels("document " + seed + " subtree " + subtree, paint(plain, subtree, mController, SVGParserRenderer.LAYER_ALL),
+						paint(optimized, subtree, mController, SVGParserRenderer.LAYER_ALL));
+			}
+		}
+	}
+
+
+	public void testSubtreeCallsBackGroupId() {
+		final byte[] document = ("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"400\" height=\"300\">"
+				+ "<g id=\"_animNeedle\" transform=\"translate(10,10)\"><rect width=\"5\" height=\"5\"/><rect x=\"20\" width=\"5\" height=\"5\"/></g>"
+				+ "</svg>").getBytes();
+		final SVGParserRenderer optimized = new SVGParserRenderer(getContext(), new ByteArrayInputStream(document));
+		final SVGParserRenderer plain = new SVGParserRenderer();
+		plain.setOptimizeBytecode(false);
+		plain.parseImageFile(getContext(), new ByteArrayInputStream(document));
+
+		for (final SVGParserRenderer image : new SVGParserRenderer[] { plain, optimized }) {
+			final Recorder whole = new Recorder();
+			paint(image, null, whole, SVGParserRenderer.LAYER_ALL);
+			assertEquals(Collections.singletonList("_animNeedle"), whole.mIds);
+			final Recorder subtree = new Recorder();
+			paint(image, "_animNeedle", subtree, SVGParserRenderer.LAYER_ALL);
+			assertEquals(whole.mIds, subtree.mIds);
+		}
+		assertSamePixels("subtree _animNeedle", paint(plain, "_animNeedle", null, SVGParserRenderer.LAYER_ALL),
+				paint(optimized, "_animNeedle", null, SVGParserRenderer.LAYER_ALL));
+	}
+
+}
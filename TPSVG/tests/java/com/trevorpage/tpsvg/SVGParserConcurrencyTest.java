@@ -0,0 +1,72 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks that documents parsed at the same time on a pool of threads come out exactly as they do
+ * when they are parsed one at a time, by comparing their compiled form (see SVGCompiledFormat).
+ * Any parse state shared between SVGParserRenderer instances shows up as a difference.
+ */
+public class SVGParserConcurrencyTest extends TestCase {
+
+	private static final int	DOCUMENTS	= 12;
+
+
+	private static final int	PARSES		= 240;
+
+
+	private static final int	THREADS		= 8;
+
+
+	private static byte[] compile(final byte[] document) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SVGCompiler.compile(new ByteArrayInputStream(document), out);
+		return out.toByteArray();
+	}
+
+
+	public void testParallelParsesMatchSerialParses() throws Exception {
+		final List<byte[]> documents = new ArrayList<byte[]>();
+		final List<byte[]> expected = new ArrayList<byte[]>();
+		for (int i = 0; i < DOCUMENTS; i++) {
+			final byte[] document = SVGTestDocuments.generate(i, 50 + 40 * i);
+			documents.add(document);
+			expected.add(compile(document));
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+			for (int i = 0; i < PARSES; i++) {
+				final byte[] document = documents.get(i % DOCUMENTS);
+				results.add(executor.submit(new Callable<byte[]>() {
+
+					public byte[] call() throws IOException {
+						return compile(document);
+					}
+				}));
+			}
+			for (int i = 0; i < PARSES; i++) {
+				assertTrue("parse " + i + " of document " + i % DOCUMENTS, Arrays.equals(expected.get(i % DOCUMENTS), results.get(i).get()));
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,217 @@
+package com.trevorpage.tpsvg;
+
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks that SVGPathScanner produces exactly the token stream of the regular expression based
+ * PathTokenizer it replaced, which is kept here as the reference.
+ */
+public class SVGPathScannerTest extends TestCase {
+
+	/**
+	 * The old PathTokenizer, unchanged except for being static.
+	 */
+	private static class PathTokenizer {
+
+		private static final int	LTOK_END		= 5;
+
+
+		private static final int	LTOK_LETTER		= 3;
+
+
+		private static final int	LTOK_NUMBER		= 1;
+
+
+		private static final int	LTOK_SPACE		= 4;
+
+
+		private static final String	REGEXP_LETTER	= "([a-zA-Z_])";
+
+
+		private static final String	REGEXP_NUMBER	= "([-+]?[0-9]*[\\.]?[0-9]+([eE][-+]?[0-9]+)?)";
+
+
+		private static final String	REGEXP_SPACE	= "([\\s+,\\(\\)]+)";
+
+
+		private static final String	REGEXP_TOKENS	= REGEXP_NUMBER + "|" + REGEXP_LETTER + "|" + REGEXP_SPACE;
+
+
+		private int					currentTok;
+
+
+		private char				tokenChar;
+
+
+		private float				tokenF;
+
+
+		private Matcher				tokMatcher;
+
+
+		private final Pattern		tokRegExp		= Pattern.compile(REGEXP_TOKENS);
+
+
+		int getToken(final String inputLine) {
+
+			int resultTok = LTOK_END;
+
+			if (inputLine != null) {
+				tokMatcher = tokRegExp.matcher(inputLine);
+			}
+
+			if (tokMatcher != null) {
+
+				do {
+					resultTok = LTOK_END;
+					if (tokMatcher.find()) {
+
+						if (tokMatcher.start(LTOK_NUMBER) != -1) {
+							resultTok = LTOK_NUMBER;
+							try {
+								tokenF = Float.parseFloat(tokMatcher.group(resultTok));
+							}
+							catch (final NumberFormatException e_i) {
+
+							}
+							break;
+						}
+						else if (tokMatcher.start(LTOK_LETTER) != -1) {
+							resultTok = LTOK_LETTER;
+							tokenChar = tokMatcher.group(resultTok).charAt(0);
+						}
+						else if (tokMatcher.start(LTOK_SPACE) != -1) {
+							resultTok = LTOK_SPACE;
+						}
+					}
+				}
+				while (resultTok == LTOK_SPACE);
+			}
+			currentTok = resultTok;
+			return resultTok;
+		}
+
+	}
+
+
+	// Characters that random path data is made of, weighted towards the ones that matter.
+	private static final String		ALPHABET	= "0123456789012345678901234567890123456789....----++eeEE  ,,()\t\nMmLlCcZzAaHh_#%;";
+
+
+	private static final String[]	CORPUS		= {
+												"",
+												"M 10,20 L 30,40 Z",
+												"M10-20l30.5.5-2",
+												"m 1.5e3,2E-2 c 1e+2,3e 4,.5 -.5,-.e5",
+												"M1.e2 1. .1 -.1 +.1 +-1 -+1 --1",
+												"M 0.000000000000000000001 123456789012345678901234567890",
+												"M 3.4028236e38 1e-46 1e-45 1e39 99999999999999999999e-20",
+												"M 0.1234567890123456789012345 -0000000000.5e0000001",
+												"M1e99999999999 1e-99999999999 0e5 00.00",
+												"M(1,2)L(3,4)",
+												"M 1e 2E+ 3e- 4ee5",
+												"polygon 10,10 20,20, ,30,30",
+												"M 1.79769313486231570e+308 4.9e-324",
+												"\u00a0M\u20101\u00b72"
+												};
+
+
+	private static void assertSameTokens(final String data) {
+		final PathTokenizer reference = new PathTokenizer();
+		final SVGPathScanner scanner = new SVGPathScanner();
+
+		int expected = reference.getToken(data);
+		int actual = scanner.reset(data);
+		int index = 0;
+		while (true) {
+			final String where = "token " + index + " of \"" + data + "\"";
+			switch (expected) {
+				case PathTokenizer.LTOK_NUMBER:
+					assertEquals(where, SVGPathScanner.TOK_NUMBER, actual);
+					assertEquals(where, Float.floatToIntBits(reference.tokenF), Float.floatToIntBits(scanner.tokenF));
+					break;
+
+				case PathTokenizer.LTOK_LETTER:
+					assertEquals(where, SVGPathScanner.TOK_LETTER, actual);
+					assertEquals(where, reference.tokenChar, scanner.tokenChar);
+					break;
+
+				default:
+					assertEquals(where, SVGPathScanner.TOK_END, actual);
+					return;
+			}
+			expected = reference.getToken(null);
+			actual = scanner.nextToken();
+			index++;
+		}
+	}
+
+
+	public void testCorpus() {
+		for (final String data : CORPUS) {
+			assertSameTokens(data);
+		}
+	}
+
+
+	public void testNull() {
+		assertEquals(SVGPathScanner.TOK_END, new SVGPathScanner().reset(null));
+	}
+
+
+	public void testRandomCharacters() {
+		final Random random = new Random(1);
+		final StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			data.setLength(0);
+			final int length = random.nextInt(40);
+			for (int j = 0; j < length; j++) {
+				data.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			}
+			assertSameTokens(data.toString());
+		}
+	}
+
+
+	public void testRandomNumbers() {
+		final Random random = new Random(2);
+		final StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			data.setLength(0);
+			for (int j = 0; j < 8; j++) {
+				final float value = Float.intBitsToFloat(random.nextInt());
+				if (Float.isNaN(value) || Float.isInfinite(value)) {
+					continue;
+				}
+				switch (random.nextInt(4)) {
+					case 0:
+						data.append(value);
+						break;
+
+					case 1:
+						data.append(String.format(Locale.US, "%.6f", random.nextDouble() * 2000 - 1000));
+						break;
+
+					case 2:
+						data.append(String.format(Locale.US, "%.3e", random.nextDouble() * 2000 - 1000));
+						break;
+
+					default:
+						data.append(random.nextInt(100000) - 50000);
+						break;
+				}
+				data.append(random.nextBoolean() ? " " : random.nextBoolean() ? "," : "L");
+			}
+			assertSameTokens(data.toString());
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.ByteArrayInputStream;
+
+
+import com.trevorpage.tpsvg.SVGParserRenderer.SvgStyle;
+import com.trevorpage.tpsvg.SVGParserRenderer.Textstring;
+
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+
+/**
+ * Checks that once an image has been painted a few times, painting it again allocates nothing,
+ * with a controller that animates its elements.
+ */
+public class SVGRenderAllocationTest extends AndroidTestCase {
+
+	/**
+	 * Rotates each element, and paints each one twice. It allocates nothing itself.
+	 */
+	private static final class Controller implements ITpsvgController {
+
+		public boolean animElement(final String id, final int iteration, final Matrix matrix, final Paint stroke, final Paint fill) {
+			matrix.postRotate(10 * iteration);
+			return iteration < 1;
+		}
+
+
+		public boolean animTextElement(final String id, final int iteration, final Matrix matrix, final SvgStyle style,
+				final Textstring text, final float x, final float y) {
+			return false;
+		}
+
+
+		public boolean arcParams(final String id, final Path path, final float startAngle, final float sweepAngle, final RectF bounds) {
+			return false;
+		}
+
+
+		public void onSVGPrivateData(final String key, final String value) {
+
+		}
+
+
+		public void setSourceDocumentHeight(final int height) {
+
+		}
+
+
+		public void setSourceDocumentWidth(final int width) {
+
+		}
+	}
+
+
+	private static final int	FRAMES			= 10;
+
+
+	private static final int	HEIGHT			= 300;
+
+
+	private static final int	WARM_UP_FRAMES	= 3;
+
+
+	private static final int	WIDTH			= 400;
+
+
+	private Bitmap				mBitmap;
+
+
+	private Canvas				mCanvas;
+
+
+	private final Controller	mController		= new Controller();
+
+
+	private View				mView;
+
+
+	private int countAllocations(final SVGParserRenderer image, final int layer) {
+		for (int i = 0; i < WARM_UP_FRAMES; i++) {
+			image.paintImage(mCanvas, null, mView, mController, false, layer);
+		}
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < FRAMES; i++) {
+			image.paintImage(mCanvas, null, mView, mController, false, layer);
+		}
+		Debug.stopAllocCounting();
+		return Debug.getThreadAllocCount();
+	}
+
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+		mCanvas = new Canvas(mBitmap);
+		mView = new View(getContext());
+		mView.layout(0, 0, WIDTH, HEIGHT);
+	}
+
+
+	@Override
+	protected void tearDown() throws Exception {
+		mBitmap.recycle();
+		super.tearDown();
+	}
+
+
+	public void testSteadyFramesDoNotAllocate() {
+		for (int seed = 0; seed < 4; seed++) {
+			final SVGParserRenderer image = new SVGParserRenderer(getContext(), new ByteArrayInputStream(SVGTestDocuments.generate(seed, 300)));
+			assertEquals("allocations in " + FRAMES + " frames of document " + seed, 0,
+					countAllocations(image, SVGParserRenderer.LAYER_ALL));
+			assertEquals("allocations in " + FRAMES + " dynamic layer frames of document " + seed, 0,
+					countAllocations(image, SVGParserRenderer.LAYER_DYNAMIC));
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+package com.trevorpage.tpsvg;
+
+
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * SVG documents for the tests, generated from a seed. Each is a random tree of groups, with and
+ * without ids, transforms and styles, holding paths, rects, circles, lines, polygons and text
+ * painted with colours and gradients, with some of the elements and groups given _anim ids. There
+ * are also runs of shapes with the same fill, like the ticks of a dial, some of which overlap.
+ */
+final class SVGTestDocuments {
+
+	private static final String[]	FILLS	= {
+											"fill:#ff0000;stroke:none",
+											"fill:#123123;fill-opacity:0.5",
+											"fill:url(#r2)"
+											};
+
+
+	private static final String[]	STYLES	= {
+											"fill:#ff0000;stroke:none",
+											"fill:none;stroke:#00ff00;stroke-width:2",
+											"fill:url(#g3);stroke:#000000",
+											"fill:#123123;fill-opacity:0.5",
+											"fill:url(#r2)",
+											"opacity:0.5;fill:#ffffff;stroke:url(#g5)",
+											"fill:#0000ff;stroke:none",
+											"fill:#ff0000;stroke:none;font-size:12px;font-family:Sans"
+											};
+
+
+	private static final String[]	TRANSFORMS	= {
+											"translate(12,30)",
+											"rotate(30)",
+											"scale(0.5,2)",
+											"matrix(1,0,0,1,3,4)",
+											"matrix(0.9,0.1,-0.1,0.9,2,1)"
+											};
+
+
+	private final StringBuilder		mOut	= new StringBuilder();
+
+
+	private final Random			mRandom;
+
+
+	private int						mNextId;
+
+
+	private SVGTestDocuments(final long seed) {
+		mRandom = new Random(seed);
+	}
+
+
+	/**
+	 * @return A document of about elements elements, in UTF-8.
+	 */
+	static byte[] generate(final long seed, final int elements) {
+		final SVGTestDocuments generator = new SVGTestDocuments(seed);
+		generator.document(elements);
+		try {
+			return generator.mOut.toString().getBytes("UTF-8");
+		}
+		catch (final UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	private void append(final String format, final Object... args) {
+		mOut.append(String.format(Locale.US, format, args)).append('\n');
+	}
+
+
+	private void document(final int elements) {
+		final Random r = mRandom;
+		append("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+				+ " xmlns:msdroid=\"http://example.com/msdroid\" width=\"400\" height=\"300\">");
+		append("<msdroid:name>document %d</msdroid:name>", r.nextInt(100));
+		append("<defs>");
+		for (int i = 0; i < 8; i++) {
+			append("<linearGradient id=\"g%d\" x1=\"%d\" y1=\"%d\" x2=\"%d\" y2=\"%d\">"
+					+ "<stop offset=\"0\" style=\"stop-color:#%06x\"/>"
+					+ "<stop offset=\"1\" style=\"stop-color:#%06x;stop-opacity:0.%d\"/></linearGradient>",
+					i, r.nextInt(400), r.nextInt(300), r.nextInt(400), r.nextInt(300),
+					r.nextInt(1 << 24), r.nextInt(1 << 24), r.nextInt(10));
+		}
+		for (int i = 0; i < 4; i++) {
+			append("<radialGradient id=\"r%d\" xlink:href=\"#g%d\" cx=\"%d\" cy=\"%d\" r=\"%d\" gradientTransform=\"translate(%d,%d)\"/>",
+					i, i, r.nextInt(400), r.nextInt(300), 1 + r.nextInt(100), r.nextInt(9), r.nextInt(9));
+		}
+		append("</defs>");
+		int remaining = elements;
+		while (remaining > 0) {
+			remaining -= group(0);
+		}
+		append("</svg>");
+	}
+
+
+	/**
+	 * @return The number of elements written.
+	 */
+	private int group(final int depth) {
+		final Random r = mRandom;
+		int written = 0;
+		final int n = 2 + r.nextInt(6);
+		for (int i = 0; i < n; i++) {
+			final float kind = r.nextFloat();
+			if (kind < 0.2f && depth < 4) {
+				final int id = mNextId++;
+				final float idKind = r.nextFloat();
+				final String transform = r.nextBoolean() ? TRANSFORMS[r.nextInt(TRANSFORMS.length)] : null;
+				final String style = r.nextBoolean() ? STYLES[r.nextInt(STYLES.length)] : null;
+				append("<g%s%s%s>",
+						idKind < 0.4f ? " id=\"grp" + id + "\"" : idKind < 0.55f ? " id=\"_animgrp" + id + "\"" : "",
+						null == transform ? "" : " transform=\"" + transform + "\"",
+						null == style ? "" : " style=\"" + style + "\"");
+				written += group(depth + 1);
+				append("</g>");
+			}
+			else if (kind < 0.7f) {
+				final String id = r.nextInt(10) == 0 ? "_anim" + mNextId++ : "path" + mNextId++;
+				append("<path id=\"%s\" style=\"%s\"%s d=\"%s\"/>", id, STYLES[r.nextInt(STYLES.length)],
+						r.nextInt(5) == 0 ? " transform=\"" + TRANSFORMS[r.nextInt(TRANSFORMS.length)] + "\"" : "",
+						pathData());
+			}
+			else if (kind < 0.8f) {
+				append("<rect x=\"%d\" y=\"%d\" width=\"%d\" height=\"%d\" style=\"%s\"/>", r.nextInt(400), r.nextInt(300),
+						1 + r.nextInt(60), 1 + r.nextInt(60), STYLES[r.nextInt(STYLES.length)]);
+			}
+			else if (kind < 0.85f) {
+				append("<circle cx=\"%d\" cy=\"%d\" r=\"%d\" fill=\"#%06x\"/>", r.nextInt(400), r.nextInt(300),
+						1 + r.nextInt(30), r.nextInt(1 << 24));
+			}
+			else if (kind < 0.9f) {
+				append("<polygon points=\"%d,%d %d,%d %d,%d\" style=\"%s\"/>", r.nextInt(400), r.nextInt(300), r.nextInt(400),
+						r.nextInt(300), r.nextInt(400), r.nextInt(300), STYLES[r.nextInt(STYLES.length)]);
+			}
+			else if (kind < 0.92f) {
+				run();
+			}
+			else if (kind < 0.94f) {
+				append("<line x1=\"%d\" y1=\"%d\" x2=\"%d\" y2=\"%d\" style=\"%s\"/>", r.nextInt(400), r.nextInt(300),
+						r.nextInt(400), r.nextInt(300), STYLES[1]);
+			}
+			else {
+				append("<text x=\"%d\" y=\"%d\" style=\"font-size:%dpx;fill:#%06x\">t%d</text>", r.nextInt(400), r.nextInt(300),
+						5 + r.nextInt(25), r.nextInt(1 << 24), i);
+			}
+			written++;
+		}
+		return written;
+	}
+
+
+	/**
+	 * A run of rects and triangles with the same fill, spaced along a line, overlapping where the
+	 * step is smaller than the shapes.
+	 */
+	private void run() {
+		final Random r = mRandom;
+		final String style = FILLS[r.nextInt(FILLS.length)];
+		final int size = 2 + r.nextInt(20);
+		final int step = 1 + r.nextInt(30);
+		final int x = r.nextInt(200);
+		final int y = r.nextInt(280);
+		final int n = 3 + r.nextInt(8);
+		for (int i = 0; i < n; i++) {
+			if (r.nextBoolean()) {
+				append("<rect x=\"%d\" y=\"%d\" width=\"%d\" height=\"%d\" style=\"%s\"/>", x + i * step, y, size, size, style);
+			}
+			else {
+				append("<path style=\"%s\" d=\"M %d,%d l %d,0 l %d,%d z\"/>", style, x + i * step, y + size, size, -size / 2, -size);
+			}
+		}
+	}
+
+
+	private String pathData() {
+		final Random r = mRandom;
+		final StringBuilder d = new StringBuilder(String.format(Locale.US, "M %.2f,%.2f", r.nextFloat() * 360, r.nextFloat() * 260));
+		final int segments = 1 + r.nextInt(10);
+		for (int i = 0; i < segments; i++) {
+			switch (r.nextInt(8)) {
+				case 0:
+					d.append(String.format(Locale.US, " l %.3f,%.3f", r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30));
+					break;
+
+				case 1:
+					d.append(String.format(Locale.US, " L %.3f %.3f", r.nextFloat() * 400, r.nextFloat() * 300));
+					break;
+
+				case 2:
+					d.append(String.format(Locale.US, " c %.1f %.1f %.1f %.1f %.1f %.1f", r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30,
+							r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30));
+					break;
+
+				case 3:
+					d.append(String.format(Locale.US, " s %.1f,%.1f %.1f,%.1f", r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30,
+							r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30));
+					break;
+
+				case 4:
+					d.append(String.format(Locale.US, " %s %.2e", r.nextBoolean() ? "h" : "v", r.nextFloat() * 60 - 30));
+					break;
+
+				case 5:
+					d.append(String.format(Locale.US, " q %.1f %.1f %.1f %.1f", r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30,
+							r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30));
+					break;
+
+				case 6:
+					d.append(String.format(Locale.US, " a %.1f %.1f %d %d %d %.1f %.1f", 1 + r.nextFloat() * 30, 1 + r.nextFloat() * 30,
+							r.nextInt(90), r.nextInt(2), r.nextInt(2), r.nextFloat() * 60 - 30, r.nextFloat() * 60 - 30));
+					break;
+
+				default:
+					d.append(" z");
+					break;
+			}
+		}
+		return d.toString();
+	}
+
+}